@@ -0,0 +1,67 @@
+/*
+ * @(#)AY8912.java
+ */
+
+/**
+ * <p>The AY8912 class is the register file of the 128K's sound chip, on the
+ * IO bus at FFFD, which selects a register and reads it back, and BFFD,
+ * which writes it. Only A15 and A1 are decoded, A14 tells the two apart.
+ * There is no sound output in this version, the registers are kept so that
+ * programs which read them back, and snapshots, see the right values.</p>
+ *
+ * @see Spectrum128
+ * @see SpectrumMachine#attach
+ */
+
+public class AY8912 implements SpectrumMachine.Device {
+	/** Bits each register has, the rest read back as 0 */
+	private static final int WIDTH[] = {
+		0xff, 0x0f, 0xff, 0x0f, 0xff, 0x0f, 0x1f, 0xff,
+		0x1f, 0x1f, 0x1f, 0xff, 0xff, 0x0f, 0xff, 0xff
+	};
+
+	private final int registers[] = new int[ 16 ];
+	private int       selected    = 0;
+
+	/** Attach to machine at its usual ports */
+	public void attach( SpectrumMachine machine ) {
+		machine.attach( this, 0x8002, 0x8000 );
+	}
+
+	public int inb( SpectrumMachine machine, int port ) {
+		return ((port & 0x4000) != 0) ? registers[ selected ] : 0xff;
+	}
+
+	public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+		if ( (port & 0x4000) != 0 ) {
+			selected = outByte & 0x0f;
+		}
+		else {
+			registers[ selected ] = outByte & WIDTH[ selected ];
+		}
+	}
+
+	/** The register last selected */
+	public int selected() {
+		return selected;
+	}
+
+	public int register( int n ) {
+		return registers[ n & 0x0f ];
+	}
+
+	/** Set all sixteen registers and the one selected, as from a snapshot */
+	public void load( int selected, int values[] ) {
+		for ( int i = 0; i < 16; i++ ) {
+			registers[ i ] = values[ i ] & WIDTH[ i ];
+		}
+		this.selected = selected & 0x0f;
+	}
+
+	public void reset() {
+		for ( int i = 0; i < 16; i++ ) {
+			registers[ i ] = 0;
+		}
+		selected = 0;
+	}
+}
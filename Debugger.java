@@ -0,0 +1,467 @@
+/*
+ * @(#)Debugger.java
+ */
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The Debugger class holds breakpoints and watchpoints for a Z80, and
+ * stops the emulation thread when one of them is hit until it is told to
+ * resume or step.</p>
+ *
+ * <p>Setting Z80.debugger switches the Z80 to a variant of its fetch/execute
+ * loop which asks the debugger before and after every instruction, from the
+ * next frame on. Without a debugger the usual loop runs untouched, so there
+ * is nothing to pay for breakpoints until there are some. The debugging loop
+ * also runs LDIR, LDDR and idle loops one time round at a time, so that each
+ * time round can be stopped at.</p>
+ *
+ * <p>A breakpoint stops before the instruction at its address runs. A
+ * watchpoint stops after an instruction which wrote to any byte of its range
+ * of memory, even with the value already there. It taps the 256 byte pages
+ * of the machine's memory map which the range covers, so writes anywhere
+ * else go at full speed, and it knows which instruction did the write.
+ * Either can have a condition, written as Java or compiled from a string
+ * such as <code>"A == $10 &amp;&amp; (HL) != 0"</code>:</p>
+ *
+ * <pre>
+ *   condition  := and { "||" and }
+ *   and        := compare { "&amp;&amp;" compare }
+ *   compare    := value [ ( "==" | "!=" | "&lt;" | "&lt;=" | "&gt;" | "&gt;=" ) value ]
+ *   value      := register | number | "(" value ")"
+ * </pre>
+ *
+ * <p>where a register is any of A F B C D E H L AF BC DE HL IX IY SP PC I R,
+ * a number is decimal, $hex or 0xhex, a value on its own is true if it is not
+ * zero and (value) is the byte in memory at that address.</p>
+ *
+ * @see Z80#debugger
+ */
+
+public class Debugger {
+	/** A test of the state of the Z80 */
+	public interface Condition {
+		boolean test( Z80 z80 );
+	}
+
+	/** Told on the emulation thread when it stops, before it waits */
+	public interface Listener {
+		void stopped( Debugger debugger, Z80 z80 );
+	}
+
+	public static final Condition ALWAYS = z80 -> true;
+
+	private final Condition breaks[] = new Condition[ 65536 ];
+
+	private static final class Watch {
+		final int       addr;
+		final int       len;
+		final Condition condition;
+		/** The first address written since the last check, or -1 */
+		int             hit = -1;
+		/** The instruction which wrote it, -1 for the interrupt or an event */
+		int             by  = -1;
+
+		Watch( int _addr, int _len, Condition _condition ) {
+			addr      = _addr;
+			len       = _len;
+			condition = _condition;
+		}
+
+		boolean covers( int a ) {
+			return ((a - addr) & 0xffff) < len;
+		}
+	}
+
+	/** Replaced rather than changed, so that the Z80 can read it unlocked */
+	private volatile Watch watches[] = new Watch[ 0 ];
+
+	/** The machine the watchpoints are on, and a tap per watched page */
+	private SpectrumMachine watched = null;
+	private final Watcher   watchers[] = new Watcher[ 256 ];
+
+	/** Sees the writes to a page with a watchpoint in it */
+	private final class Watcher extends SpectrumMachine.Tap {
+		public void pokeb( SpectrumMachine machine, int addr, int newByte ) {
+			if ( machine.debugger == Debugger.this ) {
+				wrote( addr );
+			}
+			pass( machine, addr, newByte );
+		}
+	}
+
+	/** The instruction being run, -1 between instructions */
+	private int     pc = -1;
+	/** Set when a watchpoint has been written to */
+	private boolean written = false;
+
+	public  Listener          listener = null;
+	public  long              hits = 0;
+	private volatile String   reason = null;
+	private volatile boolean  stepping = false;
+
+	private final ReentrantLock                        lock    = new ReentrantLock();
+	private final java.util.concurrent.locks.Condition resumed = lock.newCondition();
+	private boolean                                    stopped = false;
+
+	/** Stop before the instruction at pc */
+	public void breakAt( int pc ) {
+		breakAt( pc, ALWAYS );
+	}
+
+	/** Stop before the instruction at pc if condition holds */
+	public void breakAt( int pc, Condition condition ) {
+		breaks[ pc & 0xffff ] = condition;
+	}
+
+	public void breakAt( int pc, String condition ) {
+		breakAt( pc, condition( condition ) );
+	}
+
+	public void clearBreak( int pc ) {
+		breaks[ pc & 0xffff ] = null;
+	}
+
+	/** Stop after an instruction writes to memory from addr to
+	 *  addr + len - 1. The machine's memory map is changed, so this is
+	 *  best done while it is stopped or between runs, and all watchpoints
+	 *  of a debugger have to be on the same machine.
+	 */
+	public void watch( SpectrumMachine machine, int addr, int len ) {
+		watch( machine, addr, len, ALWAYS );
+	}
+
+	public synchronized void watch( SpectrumMachine machine, int addr, int len, Condition condition ) {
+		if ( (watched != null) && (watched != machine) ) {
+			throw new IllegalArgumentException( "Watchpoints on a second machine" );
+		}
+		watched = machine;
+		Watch watch = new Watch( addr & 0xffff, len, condition );
+
+		Watch more[] = new Watch[ watches.length + 1 ];
+		System.arraycopy( watches, 0, more, 0, watches.length );
+		more[ watches.length ] = watch;
+		watches = more;
+		tapWatched();
+	}
+
+	public void watch( SpectrumMachine machine, int addr, int len, String condition ) {
+		watch( machine, addr, len, condition( condition ) );
+	}
+
+	/** Remove the watchpoints starting at addr */
+	public synchronized void clearWatch( int addr ) {
+		int n = 0;
+		for ( int i = 0; i < watches.length; i++ ) {
+			if ( watches[ i ].addr != (addr & 0xffff) ) {
+				n++;
+			}
+		}
+
+		Watch fewer[] = new Watch[ n ];
+		n = 0;
+		for ( int i = 0; i < watches.length; i++ ) {
+			if ( watches[ i ].addr != (addr & 0xffff) ) {
+				fewer[ n++ ] = watches[ i ];
+			}
+		}
+		watches = fewer;
+		if ( watched != null ) {
+			tapWatched();
+		}
+	}
+
+	/** Tap exactly the pages which the watchpoints cover */
+	private void tapWatched() {
+		boolean covered[] = new boolean[ 256 ];
+		for ( int i = 0; i < watches.length; i++ ) {
+			Watch watch = watches[ i ];
+			for ( int a = watch.addr & ~0xff; (a - watch.addr) < watch.len; a += 256 ) {
+				covered[ (a >> 8) & 0xff ] = true;
+			}
+		}
+
+		for ( int page = 0; page < 256; page++ ) {
+			if ( covered[ page ] && (watchers[ page ] == null) ) {
+				watchers[ page ] = new Watcher();
+				watched.tap( page << 8, watchers[ page ] );
+			}
+			else
+			if ( !covered[ page ] && (watchers[ page ] != null) ) {
+				watched.untap( page << 8, watchers[ page ] );
+				watchers[ page ] = null;
+			}
+		}
+	}
+
+	/** A write to addr on a watched page, by the instruction at pc */
+	private void wrote( int addr ) {
+		Watch w[] = watches;
+		for ( int i = 0; i < w.length; i++ ) {
+			Watch watch = w[ i ];
+			if ( (watch.hit < 0) && watch.covers( addr ) ) {
+				watch.hit = addr;
+				watch.by  = pc;
+				written   = true;
+			}
+		}
+	}
+
+	/** Why the emulation thread stopped last, "break at $8000" and so on */
+	public String reason() {
+		return reason;
+	}
+
+	public boolean isStopped() {
+		lock.lock();
+		try {
+			return stopped;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Let the emulation thread go on */
+	public void resume() {
+		lock.lock();
+		try {
+			stopped = false;
+			resumed.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/** Let the emulation thread run one instruction, then stop again */
+	public void step() {
+		stepping = true;
+		resume();
+	}
+
+	/** Before the Z80 runs the instruction at its PC */
+	final void before( Z80 z80 ) {
+		if ( written ) {
+			// Written by the interrupt or an event
+			check( z80 );
+		}
+		pc = z80._PC;
+
+		if ( stepping ) {
+			stepping = false;
+			stop( z80, "step" );
+			return;
+		}
+
+		Condition condition = breaks[ z80._PC ];
+		if ( (condition != null) && condition.test( z80 ) ) {
+			stop( z80, "break at " + Disassembler.hex( z80._PC, 4 ) );
+		}
+	}
+
+	/** After the Z80 ran the instruction */
+	final void after( Z80 z80 ) {
+		pc = -1;
+		if ( written ) {
+			check( z80 );
+		}
+	}
+
+	/** Stop for the watchpoints written since the last check */
+	private void check( Z80 z80 ) {
+		written = false;
+
+		Watch w[] = watches;
+		for ( int i = 0; i < w.length; i++ ) {
+			Watch watch = w[ i ];
+			int   hit   = watch.hit;
+			if ( hit >= 0 ) {
+				watch.hit = -1;
+				if ( watch.condition.test( z80 ) ) {
+					stop( z80, "write to " + Disassembler.hex( hit, 4 ) + " by " +
+						((watch.by < 0) ? "the interrupt" : Disassembler.hex( watch.by, 4 )) );
+				}
+			}
+		}
+	}
+
+	private void stop( Z80 z80, String why ) {
+		hits++;
+		reason = why;
+
+		lock.lock();
+		try {
+			stopped = true;
+		}
+		finally {
+			lock.unlock();
+		}
+
+		Listener l = listener;
+		if ( l != null ) {
+			l.stopped( this, z80 );
+		}
+
+		lock.lock();
+		try {
+			while ( stopped ) {
+				resumed.awaitUninterruptibly();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+
+	/** A value taken from the state of the Z80 */
+	private interface Value {
+		int get( Z80 z80 );
+	}
+
+	/** Compile condition into a tree of lambdas, see the class comment */
+	public static Condition condition( String condition ) {
+		Parser parser = new Parser( condition );
+		Condition c = parser.or();
+		parser.skip();
+		if ( parser.at < condition.length() ) {
+			throw parser.error();
+		}
+		return c;
+	}
+
+	private static final class Parser {
+		final String s;
+		int          at = 0;
+
+		Parser( String _s ) {
+			s = _s;
+		}
+
+		Condition or() {
+			Condition c = and();
+			while ( eat( "||" ) ) {
+				Condition a = c, b = and();
+				c = z80 -> a.test( z80 ) || b.test( z80 );
+			}
+			return c;
+		}
+
+		Condition and() {
+			Condition c = compare();
+			while ( eat( "&&" ) ) {
+				Condition a = c, b = compare();
+				c = z80 -> a.test( z80 ) && b.test( z80 );
+			}
+			return c;
+		}
+
+		Condition compare() {
+			Value a = value();
+			if ( eat( "==" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) == b.get( z80 );
+			}
+			if ( eat( "!=" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) != b.get( z80 );
+			}
+			if ( eat( "<=" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) <= b.get( z80 );
+			}
+			if ( eat( ">=" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) >= b.get( z80 );
+			}
+			if ( eat( "<" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) < b.get( z80 );
+			}
+			if ( eat( ">" ) ) {
+				Value b = value();
+				return z80 -> a.get( z80 ) > b.get( z80 );
+			}
+			return z80 -> a.get( z80 ) != 0;
+		}
+
+		Value value() {
+			if ( eat( "(" ) ) {
+				Value addr = value();
+				if ( !eat( ")" ) ) {
+					throw error();
+				}
+				return z80 -> z80.peek( addr.get( z80 ) );
+			}
+
+			skip();
+			int start = at;
+			if ( eat( "$" ) || eat( "0x" ) || eat( "0X" ) ) {
+				start = at;
+				while ( (at < s.length()) && (Character.digit( s.charAt( at ), 16 ) >= 0) ) {
+					at++;
+				}
+				return number( start, 16 );
+			}
+			if ( (at < s.length()) && Character.isDigit( s.charAt( at ) ) ) {
+				while ( (at < s.length()) && Character.isDigit( s.charAt( at ) ) ) {
+					at++;
+				}
+				return number( start, 10 );
+			}
+
+			while ( (at < s.length()) && Character.isLetter( s.charAt( at ) ) ) {
+				at++;
+			}
+			switch ( s.substring( start, at ).toUpperCase() ) {
+			case "A":  return Z80::A;
+			case "F":  return Z80::F;
+			case "B":  return Z80::B;
+			case "C":  return Z80::C;
+			case "D":  return Z80::D;
+			case "E":  return Z80::E;
+			case "H":  return Z80::H;
+			case "L":  return Z80::L;
+			case "AF": return Z80::AF;
+			case "BC": return Z80::BC;
+			case "DE": return Z80::DE;
+			case "HL": return Z80::HL;
+			case "IX": return Z80::IX;
+			case "IY": return Z80::IY;
+			case "SP": return Z80::SP;
+			case "PC": return Z80::PC;
+			case "I":  return Z80::I;
+			case "R":  return Z80::R;
+			}
+			at = start;
+			throw error();
+		}
+
+		Value number( int start, int radix ) {
+			if ( at == start ) {
+				throw error();
+			}
+			int n = Integer.parseInt( s.substring( start, at ), radix );
+			return z80 -> n;
+		}
+
+		boolean eat( String token ) {
+			skip();
+			if ( s.startsWith( token, at ) ) {
+				at += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		void skip() {
+			while ( (at < s.length()) && Character.isWhitespace( s.charAt( at ) ) ) {
+				at++;
+			}
+		}
+
+		IllegalArgumentException error() {
+			return new IllegalArgumentException( "Bad condition at " + at + ": " + s );
+		}
+	}
+}
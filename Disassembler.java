@@ -0,0 +1,272 @@
+/*
+ * @(#)Disassembler.java
+ */
+
+/**
+ * <p>The Disassembler class turns Z80 machine code back into mnemonics,
+ * including the undocumented ones: IXH and friends, SLL and the DD CB forms
+ * which also copy their result into a register. Opcodes are taken apart
+ * into the usual x, y, z, p and q fields rather than looked up, which keeps
+ * the tables down to the register, condition and operation names.</p>
+ *
+ * <p>Numbers are written in hex as $12 and $1234, relative jumps as their
+ * target.</p>
+ *
+ * @see TraceDump
+ */
+
+public class Disassembler {
+	private static final String R[]   = { "B", "C", "D", "E", "H", "L", "(HL)", "A" };
+	private static final String RP[]  = { "BC", "DE", "HL", "SP" };
+	private static final String RP2[] = { "BC", "DE", "HL", "AF" };
+	private static final String CC[]  = { "NZ", "Z", "NC", "C", "PO", "PE", "P", "M" };
+	private static final String ALU[] = { "ADD A,", "ADC A,", "SUB ", "SBC A,", "AND ", "XOR ", "OR ", "CP " };
+	private static final String ROT[] = { "RLC ", "RRC ", "RL ", "RR ", "SLA ", "SRA ", "SLL ", "SRL " };
+	private static final String ACC[] = { "RLCA", "RRCA", "RLA", "RRA", "DAA", "CPL", "SCF", "CCF" };
+	private static final String IMS[] = { "0", "0/1", "1", "2", "0", "0/1", "1", "2" };
+	private static final String LDA[] = { "LD I,A", "LD R,A", "LD A,I", "LD A,R", "RRD", "RLD", "NOP*", "NOP*" };
+	private static final String BLOCK[][] = {
+		{ "LDI",  "CPI",  "INI",  "OUTI" },
+		{ "LDD",  "CPD",  "IND",  "OUTD" },
+		{ "LDIR", "CPIR", "INIR", "OTIR" },
+		{ "LDDR", "CPDR", "INDR", "OTDR" },
+	};
+
+	private byte   code[];
+	private int    start;
+	private int    at;
+	private int    pc;
+	/** "IX" or "IY" after a DD or FD prefix, otherwise null */
+	private String index;
+
+	/** The instruction in code at start, which sits at address pc */
+	public String disassemble( byte _code[], int _start, int _pc ) {
+		code  = _code;
+		start = at = _start;
+		pc    = _pc;
+		index = null;
+
+		int op = next();
+		if ( (op == 0xdd) || (op == 0xfd) ) {
+			index = (op == 0xdd) ? "IX" : "IY";
+			op = next();
+			if ( (op == 0xdd) || (op == 0xfd) || (op == 0xed) ) {
+				// A prefix followed by another one does nothing
+				at--;
+				return "NOP*";
+			}
+			if ( op == 0xcb ) {
+				String d = indexed();
+				return cb( next(), d );
+			}
+		}
+
+		switch ( op ) {
+		case 0xcb:
+			return cb( next(), null );
+		case 0xed:
+			return ed( next() );
+		}
+		return main( op );
+	}
+
+	/** Bytes taken by the last instruction disassembled */
+	public int length() {
+		return at - start;
+	}
+
+	private String main( int op ) {
+		int x = op >> 6, y = (op >> 3) & 7, z = op & 7, p = y >> 1, q = y & 1;
+
+		switch ( x ) {
+		case 0:
+			switch ( z ) {
+			case 0:
+				switch ( y ) {
+				case 0:  return "NOP";
+				case 1:  return "EX AF,AF'";
+				case 2:  return "DJNZ " + relative();
+				case 3:  return "JR " + relative();
+				default: return "JR " + CC[ y - 4 ] + "," + relative();
+				}
+			case 1:
+				return (q == 0) ? ("LD " + rp( p ) + "," + nn()) : ("ADD " + hl() + "," + rp( p ));
+			case 2:
+				switch ( y ) {
+				case 0:  return "LD (BC),A";
+				case 1:  return "LD A,(BC)";
+				case 2:  return "LD (DE),A";
+				case 3:  return "LD A,(DE)";
+				case 4:  return "LD (" + nn() + ")," + hl();
+				case 5:  return "LD " + hl() + ",(" + nn() + ")";
+				case 6:  return "LD (" + nn() + "),A";
+				default: return "LD A,(" + nn() + ")";
+				}
+			case 3:
+				return ((q == 0) ? "INC " : "DEC ") + rp( p );
+			case 4:
+				return "INC " + r( y );
+			case 5:
+				return "DEC " + r( y );
+			case 6:
+				return "LD " + r( y ) + "," + n();
+			default:
+				return ACC[ y ];
+			}
+
+		case 1:
+			// With (IX+d) the other register is never IXH or IXL
+			if ( (y == 6) && (z == 6) ) {
+				return "HALT";
+			}
+			if ( y == 6 ) {
+				return "LD " + r( 6 ) + "," + R[ z ];
+			}
+			if ( z == 6 ) {
+				return "LD " + R[ y ] + "," + r( 6 );
+			}
+			return "LD " + r( y ) + "," + r( z );
+
+		case 2:
+			return ALU[ y ] + r( z );
+
+		default:
+			switch ( z ) {
+			case 0:
+				return "RET " + CC[ y ];
+			case 1:
+				if ( q == 0 ) {
+					return "POP " + rp2( p );
+				}
+				switch ( p ) {
+				case 0:  return "RET";
+				case 1:  return "EXX";
+				case 2:  return "JP (" + hl() + ")";
+				default: return "LD SP," + hl();
+				}
+			case 2:
+				return "JP " + CC[ y ] + "," + nn();
+			case 3:
+				switch ( y ) {
+				case 0:  return "JP " + nn();
+				case 2:  return "OUT (" + n() + "),A";
+				case 3:  return "IN A,(" + n() + ")";
+				case 4:  return "EX (SP)," + hl();
+				case 5:  return "EX DE,HL";
+				case 6:  return "DI";
+				default: return "EI";
+				}
+			case 4:
+				return "CALL " + CC[ y ] + "," + nn();
+			case 5:
+				return (q == 0) ? ("PUSH " + rp2( p )) : ("CALL " + nn());
+			case 6:
+				return ALU[ y ] + n();
+			default:
+				return "RST " + hex( y * 8, 2 );
+			}
+		}
+	}
+
+	/** After CB, or DD CB d with (IX+d) as target */
+	private String cb( int op, String target ) {
+		int x = op >> 6, y = (op >> 3) & 7, z = op & 7;
+
+		String operand = (target == null) ? R[ z ] : target;
+		if ( (target != null) && (z != 6) && (x != 1) ) {
+			// Undocumented, the result is also copied into a register
+			operand += "," + R[ z ];
+		}
+
+		switch ( x ) {
+		case 0:  return ROT[ y ] + operand;
+		case 1:  return "BIT " + y + "," + operand;
+		case 2:  return "RES " + y + "," + operand;
+		default: return "SET " + y + "," + operand;
+		}
+	}
+
+	private String ed( int op ) {
+		int x = op >> 6, y = (op >> 3) & 7, z = op & 7, p = y >> 1, q = y & 1;
+
+		if ( x == 1 ) {
+			switch ( z ) {
+			case 0:
+				return (y == 6) ? "IN (C)" : ("IN " + R[ y ] + ",(C)");
+			case 1:
+				return "OUT (C)," + ((y == 6) ? "0" : R[ y ]);
+			case 2:
+				return ((q == 0) ? "SBC HL," : "ADC HL,") + RP[ p ];
+			case 3:
+				return (q == 0) ? ("LD (" + nn() + ")," + RP[ p ]) : ("LD " + RP[ p ] + ",(" + nn() + ")");
+			case 4:
+				return "NEG";
+			case 5:
+				return (y == 1) ? "RETI" : "RETN";
+			case 6:
+				return "IM " + IMS[ y ];
+			default:
+				return LDA[ y ];
+			}
+		}
+		if ( (x == 2) && (z <= 3) && (y >= 4) ) {
+			return BLOCK[ y - 4 ][ z ];
+		}
+		return "NOP*";
+	}
+
+	private int next() {
+		return code[ at++ ] & 0xff;
+	}
+
+	private String n() {
+		return hex( next(), 2 );
+	}
+
+	private String nn() {
+		int lo = next();
+		return hex( lo | (next() << 8), 4 );
+	}
+
+	private String relative() {
+		int d = code[ at++ ];
+		return hex( (pc + length() + d) & 0xffff, 4 );
+	}
+
+	/** (IX+d) or (IY+d), taking the displacement */
+	private String indexed() {
+		int d = code[ at++ ];
+		return "(" + index + ((d < 0) ? "-" : "+") + hex( Math.abs( d ), 2 ) + ")";
+	}
+
+	private String r( int i ) {
+		if ( index != null ) {
+			switch ( i ) {
+			case 4:  return index + "H";
+			case 5:  return index + "L";
+			case 6:  return indexed();
+			}
+		}
+		return R[ i ];
+	}
+
+	private String hl() {
+		return (index == null) ? "HL" : index;
+	}
+
+	private String rp( int p ) {
+		return (p == 2) ? hl() : RP[ p ];
+	}
+
+	private String rp2( int p ) {
+		return (p == 2) ? hl() : RP2[ p ];
+	}
+
+	static String hex( int n, int digits ) {
+		String s = Integer.toHexString( n ).toUpperCase();
+		while ( s.length() < digits ) {
+			s = "0" + s;
+		}
+		return "$" + s;
+	}
+}
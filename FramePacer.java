@@ -0,0 +1,113 @@
+/*
+ * @(#)FramePacer.java
+ */
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>The FramePacer class holds an emulation thread to a steady frame rate,
+ * that of the machine's own frame: 50.08 a second for a 48K Spectrum and
+ * 50.02 for a 128K. Frames are due at fixed multiples of
+ * the period from a starting point rather than a period after the last one,
+ * so time lost to a late wake up is made up on the next frame instead of
+ * drifting. The wait itself parks until shortly before the frame is due and
+ * then spins the rest of the way, as parking alone overshoots by the timer
+ * slack of the system.</p>
+ *
+ * <p>How late each frame actually started is kept as the jitter, both as a
+ * running mean and the worst seen, in nanoseconds.</p>
+ *
+ * @see SpectrumMachine
+ * @see SpectrumSession
+ */
+
+public class FramePacer {
+	/** The frame rate of a 48K Spectrum, 69888 T-states at 3.5 MHz */
+	public static final double SPECTRUM_HZ = 3500000.0 / 69888;
+
+	/** Further behind than this many frames and the schedule starts afresh */
+	private static final int MAX_BEHIND = 5;
+
+	private final long periodNs;
+	/** Spin rather than park for the last spinNs of each wait, but not
+	 *  on a single core where the spinning would hold up everything else.
+	 */
+	public  long       spinNs = (Runtime.getRuntime().availableProcessors() > 1) ? 250000 : 0;
+
+	private long       due = 0;
+
+	private long       frames = 0;
+	private long       late = 0;
+	private long       jitterNs = 0;
+	private long       maxJitterNs = 0;
+
+	public FramePacer() {
+		this( SPECTRUM_HZ );
+	}
+
+	public FramePacer( double hz ) {
+		periodNs = Math.round( 1e9 / hz );
+	}
+
+	/** Wait until the next frame is due */
+	public void pace() {
+		long now = System.nanoTime();
+
+		if ( (due == 0) || (now - due > MAX_BEHIND * periodNs) ) {
+			// First frame, or after a pause
+			due = now + periodNs;
+			return;
+		}
+
+		long wait;
+		while ( (wait = due - now) > spinNs ) {
+			LockSupport.parkNanos( wait - spinNs );
+			now = System.nanoTime();
+		}
+		while ( due - now > 0 ) {
+			Thread.onSpinWait();
+			now = System.nanoTime();
+		}
+
+		long lateNs = now - due;
+		frames++;
+		if ( lateNs > periodNs / 10 ) {
+			late++;
+		}
+		jitterNs += (lateNs - jitterNs) / 16;
+		maxJitterNs = Math.max( maxJitterNs, lateNs );
+
+		due += periodNs;
+	}
+
+	/** Start the schedule again from the next call, after a pause */
+	public void reset() {
+		due = 0;
+	}
+
+	public long periodNs() {
+		return periodNs;
+	}
+
+	/** Running mean of how late frames have started */
+	public long jitterNs() {
+		return jitterNs;
+	}
+
+	public long maxJitterNs() {
+		return maxJitterNs;
+	}
+
+	public long frames() {
+		return frames;
+	}
+
+	/** Frames which started over a tenth of a period late */
+	public long lateFrames() {
+		return late;
+	}
+
+	public String toString() {
+		return "jitter " + (jitterNs / 1000) + " us mean, " + (maxJitterNs / 1000) + " us max, " +
+			late + " of " + frames + " frames late";
+	}
+}
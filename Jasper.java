@@ -24,6 +24,8 @@ import java.io.*;
  *   <li><b>refreshRate</b> - refresh screen every 'X' interrupts (default=1)
  *   <li><b>sleepHack  </b> - sleep per interrupt in ms, for old VMs (default=0)
  *   <li><b>showStats  </b> - show progress bar (default=Yes)
+ *   <li><b>virtualThread</b> - run on a virtual thread (default=No)
+ *   <li><b>rewind     </b> - seconds Page Up can go back, 0 for off (default=0)
  * </ul>
  *
  * <p>The <b>snapshot</b> parameter can specify a file in one of two popuplar formats,
@@ -53,6 +55,14 @@ import java.io.*;
  * foot of the screen. The values that can be supplied are <b>Yes</b> and <b>No</b>.
  * The default value is <b>Yes</b>.</p>
  *
+ * <p>The <b>virtualThread</b> parameter runs the Spectrum on a virtual thread
+ * instead of a platform thread of its own, pausing, pacing and loading then
+ * release the carrier thread while they wait. The values that can be supplied
+ * are <b>Yes</b> and <b>No</b>. The default value is <b>No</b>.</p>
+ *
+ * <p>The <b>rewind</b> parameter keeps that many seconds of frames, each Page
+ * Up then goes back one second. The default value is <b>0</b>, no rewind.</p>
+ *
  * <p>Since the release of version 1.0 Jasper has won various awards:</p>
  *
  * <center>
@@ -81,8 +91,8 @@ import java.io.*;
  */
 
 public class Jasper extends Applet implements Runnable {
-	Spectrum    spectrum = null;
-	Thread      thread   = null;
+	Spectrum         spectrum = null;
+	volatile Thread  thread   = null;
 
 	/** Version and author information. */
 	public String getAppletInfo() {
@@ -98,6 +108,8 @@ public class Jasper extends Applet implements Runnable {
 			{ "refreshRate", "integer",  "refresh screen every 'X' interrupts (default=1)" },
 			{ "sleepHack",   "integer",  "sleep per interrupt in ms, for old VMs (default=0)" },
 			{ "showStats",   "Yes/No",   "show progress bar (default=Yes)" }, 
+			{ "virtualThread", "Yes/No", "run on a virtual thread (default=No)" },
+			{ "rewind",      "integer",  "seconds Page Up can go back, 0 for off (default=0)" },
 		};
 		return info;
 	}
@@ -110,16 +122,24 @@ public class Jasper extends Applet implements Runnable {
 	/** Start the applet creating a new thread which invokes run(). */
 	public void start() {
 		if ( thread == null ) {
-			thread = new Thread( this, "Jasper" );
+			if ( "Yes".equals( getParameter( "virtualThread" ) ) ) {
+				thread = Thread.ofVirtual().name( "Jasper" ).unstarted( this );
+			}
+			else {
+				thread = new Thread( this, "Jasper" );
+			}
 			thread.start();
 		}
 	}
 
-	/** Stop the applet. */
+	/** Stop the applet, run() returns at the next interrupt. */
 	public void stop() {
 		if ( thread != null ) {
-			thread.stop();
 			thread = null;
+
+			if ( spectrum != null ) {
+				spectrum.resume();
+			}
 		}
 	}
 
@@ -159,7 +179,9 @@ public class Jasper extends Applet implements Runnable {
 		spectrum.urlField.setText( baseURL.toString() );
 
 		URL romURL = new URL( baseURL, rom );
-		spectrum.loadROM( romURL.toString(), romURL.openStream() );
+		try ( InputStream input = romURL.openStream() ) {
+			spectrum.loadROM( romURL.toString(), input );
+		}
 
             	String snapshot = getParameter( "snapshot" );
 		snapshot = ((snapshot == null) ? getParameter( "sna" ) : snapshot);
@@ -168,14 +190,20 @@ public class Jasper extends Applet implements Runnable {
 	  		URL	          url  = new URL( baseURL, snapshot );
 			URLConnection snap = url.openConnection();
 
-			InputStream input = snap.getInputStream();
-			spectrum.loadSnapshot( url.toString(), input, snap.getContentLength() );
-			input.close();
+			try ( InputStream input = snap.getInputStream() ) {
+				spectrum.loadSnapshot( url.toString(), input, snap.getContentLength() );
+			}
 		}
 		else {
 			spectrum.reset();
 			spectrum.refreshWholeScreen();
 		}
+
+		int rewind = getIntParameter( "rewind", 0, 0, 3600 );
+		if ( rewind > 0 ) {
+			// A keyframe every 5 seconds
+			spectrum.rewinder = new Rewind( spectrum, rewind*50 + 1, 250 );
+		}
 	}
 
 	/** Read applet parameters and start the Spectrum. */
@@ -192,8 +220,8 @@ public class Jasper extends Applet implements Runnable {
 			}
 		}
 
-		if ( spectrum != null ) {
-			spectrum.execute();
+		while ( (spectrum != null) && (thread == Thread.currentThread()) ) {
+			spectrum.runFrames( 1 );
 		}
 	}
 
@@ -0,0 +1,41 @@
+/*
+ * @(#)Kempston.java
+ */
+
+/**
+ * <p>The Kempston class is a Kempston joystick interface, on the IO bus at
+ * port 1F. A read gives one bit for each direction and fire, set while it
+ * is held, and writes are ignored. It is not attached to a machine unless
+ * asked for, as a program which looks for one can tell it is there.</p>
+ *
+ * @see SpectrumMachine#attach
+ */
+
+public class Kempston implements SpectrumMachine.Device {
+	public static final int RIGHT = 0x01;
+	public static final int LEFT  = 0x02;
+	public static final int DOWN  = 0x04;
+	public static final int UP    = 0x08;
+	public static final int FIRE  = 0x10;
+
+	private volatile int state = 0;
+
+	/** Attach to machine at port 1F */
+	public void attach( SpectrumMachine machine ) {
+		machine.attach( this, 0x00ff, 0x001f );
+	}
+
+	/** Hold or let go of the directions and fire in bits */
+	public void set( int bits, boolean down ) {
+		synchronized ( this ) {
+			state = down ? (state | bits) : (state & ~bits);
+		}
+	}
+
+	public int inb( SpectrumMachine machine, int port ) {
+		return state;
+	}
+
+	public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * @(#)Profiler.java
+ */
+import java.io.*;
+import java.util.HashMap;
+
+/**
+ * <p>The Profiler class counts where the emulated Z80 spends its time. With
+ * -Djasper.profile=true every instruction the Z80 runs is counted, with its
+ * T-states, against its opcode, against its address and against the chain
+ * of subroutine calls it was made from. Otherwise the Z80 has no profiler
+ * and the checks for one compile away.</p>
+ *
+ * <p>Opcodes are counted in seven tables of 256: unprefixed, CB, ED, DD, FD,
+ * DD CB and FD CB. Calls are followed by watching the stack pointer: a CALL
+ * or RST which pushed, or an interrupt which was taken, enters a subroutine,
+ * and a RET, RETI or RETN which popped leaves it. Code which plays with its
+ * return addresses can confuse that, but only the call tree suffers.</p>
+ *
+ * <p>The call tree can be written as collapsed stacks, one line per chain of
+ * calls with the T-states spent in it, which flame graph tools take as they
+ * are.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -Djasper.profile=true Profiler [-frames n] [-top n] [-collapsed file] rom [snapshot]
+ * </pre>
+ * runs the snapshot, or the ROM on its own, headless and prints the
+ * busiest opcodes and addresses.</p>
+ *
+ * @see Z80
+ */
+
+public class Profiler {
+	/** Calls deeper than this are still followed but not recorded */
+	private static final int MAX_DEPTH = 128;
+
+	private static final String TABLES[] = { "", "CB ", "ED ", "DD ", "FD ", "DD CB ", "FD CB " };
+
+	private final long opCount[]   = new long[ TABLES.length * 256 ];
+	private final long opTStates[] = new long[ TABLES.length * 256 ];
+	private final long pcCount[]   = new long[ 65536 ];
+	private final long pcTStates[] = new long[ 65536 ];
+	private long       total = 0;
+
+	private final Node root = new Node( null, -1 );
+	private Node       current = root;
+	private int        depth = 0;
+	private int        tooDeep = 0;
+
+	/** A subroutine, or an interrupt with INTERRUPT set, in the call tree */
+	private static final int INTERRUPT = 0x10000;
+
+	private static final class Node {
+		final Node                   parent;
+		final int                    addr;
+		final HashMap<Integer, Node> children = new HashMap<Integer, Node>();
+		long                         tstates = 0;
+		long                         calls = 0;
+
+		Node( Node _parent, int _addr ) {
+			parent = _parent;
+			addr   = _addr;
+		}
+	}
+
+	/** Index into the opcode tables of the instruction at pc */
+	static int opcode( Z80 z80, int pc ) {
+		int op = z80.peek( pc );
+
+		switch ( op ) {
+		case 0xcb:
+			return 0x100 | z80.peek( pc + 1 );
+		case 0xed:
+			return 0x200 | z80.peek( pc + 1 );
+		case 0xdd:
+		case 0xfd:
+		{
+			int table = (op == 0xdd) ? 0x300 : 0x400;
+			int op2   = z80.peek( pc + 1 );
+			if ( op2 == 0xcb ) {
+				return (table + 0x200) | z80.peek( pc + 3 );
+			}
+			return table | op2;
+		}
+		}
+		return op;
+	}
+
+	/** Count an instruction at pc which took t T-states, sp is from before it */
+	void count( Z80 z80, int pc, int op, int sp, int t ) {
+		opCount[ op ]++;
+		opTStates[ op ] += t;
+		pcCount[ pc ]++;
+		pcTStates[ pc ] += t;
+		current.tstates += t;
+		total += t;
+
+		int newSp = z80.SP();
+		if ( newSp == ((sp - 2) & 0xffff) ) {
+			// CALL nn, CALL cc,nn and RST
+			if ( (op == 0xcd) || ((op & 0xfc7) == 0xc4) || ((op & 0xfc7) == 0xc7) ) {
+				enter( z80.PC() );
+			}
+		}
+		else
+		if ( newSp == ((sp + 2) & 0xffff) ) {
+			// RET, RET cc and RETI/RETN
+			if ( (op == 0xc9) || ((op & 0xfc7) == 0xc0) || ((op & 0xfc7) == 0x245) ) {
+				leave();
+			}
+		}
+	}
+
+	/** An interrupt which took t T-states, sp is from before it */
+	void interrupt( Z80 z80, int sp, int t ) {
+		if ( (t > 0) && (z80.SP() == ((sp - 2) & 0xffff)) ) {
+			enter( INTERRUPT | z80.PC() );
+			current.tstates += t;
+			total += t;
+		}
+	}
+
+	private void enter( int addr ) {
+		if ( depth >= MAX_DEPTH ) {
+			tooDeep++;
+			return;
+		}
+
+		Integer key  = Integer.valueOf( addr );
+		Node    node = current.children.get( key );
+		if ( node == null ) {
+			node = new Node( current, addr );
+			current.children.put( key, node );
+		}
+		node.calls++;
+		current = node;
+		depth++;
+	}
+
+	private void leave() {
+		if ( tooDeep > 0 ) {
+			tooDeep--;
+		}
+		else
+		if ( current != root ) {
+			current = current.parent;
+			depth--;
+		}
+	}
+
+	/** Forget everything counted so far */
+	public void clear() {
+		java.util.Arrays.fill( opCount, 0 );
+		java.util.Arrays.fill( opTStates, 0 );
+		java.util.Arrays.fill( pcCount, 0 );
+		java.util.Arrays.fill( pcTStates, 0 );
+		total = 0;
+
+		root.children.clear();
+		root.tstates = 0;
+		current = root;
+		depth   = 0;
+		tooDeep = 0;
+	}
+
+	/** The top opcodes and addresses by T-states */
+	public void report( PrintWriter out, int top ) {
+		out.println( "T-states  " + total );
+		out.println();
+		out.println( "opcode            count       T-states       %" );
+		int ops[] = sorted( opTStates, top );
+		for ( int i = 0; i < ops.length; i++ ) {
+			int op = ops[ i ];
+			line( out, TABLES[ op >> 8 ] + hex( op & 0xff, 2 ), opCount[ op ], opTStates[ op ] );
+		}
+
+		out.println();
+		out.println( "address           count       T-states       %" );
+		int pcs[] = sorted( pcTStates, top );
+		for ( int i = 0; i < pcs.length; i++ ) {
+			line( out, hex( pcs[ i ], 4 ), pcCount[ pcs[ i ] ], pcTStates[ pcs[ i ] ] );
+		}
+		out.flush();
+	}
+
+	/** The call tree as collapsed stacks, "z80;sub_8000;sub_8123 4711" */
+	public void writeCollapsed( PrintWriter out ) {
+		collapsed( out, root, "z80" );
+		out.flush();
+	}
+
+	private void collapsed( PrintWriter out, Node node, String stack ) {
+		if ( node.tstates > 0 ) {
+			out.println( stack + " " + node.tstates );
+		}
+
+		for ( Node child : node.children.values() ) {
+			String name = (((child.addr & INTERRUPT) != 0) ? "int_" : "sub_") + hex( child.addr & 0xffff, 4 );
+			collapsed( out, child, stack + ";" + name );
+		}
+	}
+
+	private void line( PrintWriter out, String name, long count, long tstates ) {
+		String percent = String.valueOf( Math.round( tstates * 1000.0 / Math.max( total, 1 ) ) / 10.0 );
+		out.println( pad( name, -10 ) + pad( String.valueOf( count ), 13 ) +
+			pad( String.valueOf( tstates ), 15 ) + pad( percent, 8 ) );
+	}
+
+	/** Indexes of the top n non-zero values, largest first */
+	private static int[] sorted( long values[], int n ) {
+		int top[] = new int[ n ];
+		int size  = 0;
+		for ( int i = 0; i < values.length; i++ ) {
+			if ( values[ i ] == 0 ) {
+				continue;
+			}
+			int j = size;
+			while ( (j > 0) && (values[ top[ j - 1 ] ] < values[ i ]) ) {
+				j--;
+			}
+			if ( j < n ) {
+				// Shift the smaller ones down, dropping the last when full
+				int last = Math.min( size, n - 1 );
+				System.arraycopy( top, j, top, j + 1, last - j );
+				top[ j ] = i;
+				size = Math.min( size + 1, n );
+			}
+		}
+		return java.util.Arrays.copyOf( top, size );
+	}
+
+	private static String hex( int n, int digits ) {
+		String s = Integer.toHexString( n ).toUpperCase();
+		while ( s.length() < digits ) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+	/** Right align in width, or left align in -width */
+	private static String pad( String s, int width ) {
+		while ( s.length() < Math.abs( width ) ) {
+			s = (width < 0) ? (s + " ") : (" " + s);
+		}
+		return s;
+	}
+
+
+	public static void main( String args[] ) throws Exception {
+		int    frames    = 500;
+		int    top       = 20;
+		String collapsed = null;
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-top" ) ) {
+				top = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-collapsed" ) ) {
+				collapsed = args[++i];
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+		if ( i >= args.length ) {
+			throw new Exception( "Usage: Profiler [-frames n] [-top n] [-collapsed file] rom [snapshot]" );
+		}
+		if ( !Z80.PROFILE ) {
+			throw new Exception( "Run with -Djasper.profile=true" );
+		}
+		String romFile  = args[ i ];
+		String snapFile = (i + 1 < args.length) ? args[ i + 1 ] : null;
+
+		SpectrumMachine spectrum = new SpectrumMachine();
+		try ( InputStream is = new FileInputStream( romFile ) ) {
+			spectrum.loadROM( romFile, is );
+		}
+		if ( snapFile != null ) {
+			File snap = new File( snapFile );
+			try ( InputStream is = new FileInputStream( snap ) ) {
+				spectrum.loadSnapshot( snapFile, is, (int) snap.length() );
+			}
+		}
+
+		spectrum.runFrames( frames );
+		spectrum.profiler.report( new PrintWriter( System.out ), top );
+
+		if ( collapsed != null ) {
+			try ( PrintWriter out = new PrintWriter( new FileWriter( collapsed ) ) ) {
+				spectrum.profiler.writeCollapsed( out );
+			}
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * @(#)Rewind.java
+ */
+
+/**
+ * <p>The Rewind class records a SpectrumMachine at every interrupt into a
+ * bounded ring of frames, so that it can be wound back to any of them.</p>
+ *
+ * <p>Each frame keeps the registers and the difference between its memory
+ * and the memory of the frame before, taken from the 256 byte chunks of
+ * every bank written since then, paged in or not. The difference is stored as runs of the changed bytes XORed
+ * with their old values, which is both what undoes the frame and usually
+ * only a few hundred bytes. Every keyInterval frames there is also a full
+ * SpectrumState as a keyframe, which shares its unchanged banks with the one
+ * before.</p>
+ *
+ * <p>Stepping back one frame applies one difference. Going back further
+ * restores the nearest keyframe after the target when that is cheaper than
+ * applying every difference in between. The oldest frames are dropped as
+ * the ring fills, without touching any of the others.</p>
+ *
+ * <p>The register ring is allocated up front, capacity times the machine's
+ * registers() ints, about 280 KB for a minute of frames on a 48K machine.
+ * The rest grows with what the program writes: a minute of Exolon adds
+ * about 840 KB of differences and 64 KB per keyframe, 1.9 MB in all with a
+ * keyframe every 250 frames. A 128K keyframe counts 160 KB.</p>
+ *
+ * @see SpectrumMachine#rewind
+ * @see SpectrumState
+ */
+
+public class Rewind {
+	/** About what restoring a keyframe costs, in differences applied */
+	private static final int KEYFRAME_COST = 16;
+	/** Equal bytes which end a run of changed ones */
+	private static final int GAP = 4;
+
+	private final SpectrumMachine machine;
+	private final int             capacity;
+	private final int             keyInterval;
+	/** Ints of registers per frame */
+	private final int             stride;
+
+	/** Frames by ring position, newest is the current state */
+	private final int             regs[];
+	private final byte            deltas[][];
+	private final SpectrumState   keys[];
+	private int                   newest = -1;
+	private int                   count  = 0;
+	private long                  recorded = 0;
+
+	/** Memory as of the newest frame, the banks one after the other */
+	private final byte            shadow[];
+	private final long            dirty[];
+	private byte                  out[]    = new byte[ 4096 ];
+
+	/** Bytes held in differences */
+	private long                  deltaBytes = 0;
+
+	public Rewind( SpectrumMachine _machine, int _capacity, int _keyInterval ) {
+		machine     = _machine;
+		capacity    = _capacity;
+		keyInterval = _keyInterval;
+
+		stride = machine.registers();
+		regs   = new int[ capacity * stride ];
+		deltas = new byte[ capacity ][];
+		keys   = new SpectrumState[ capacity ];
+		shadow = new byte[ machine.banks.length * SpectrumMachine.PAGE_SIZE ];
+		dirty  = new long[ machine.banks.length ];
+
+		copyToShadow();
+		machine.takeDirtyChunks( dirty );
+		java.util.Arrays.fill( dirty, 0 );
+	}
+
+	private void copyToShadow() {
+		for ( int b = 0; b < machine.banks.length; b++ ) {
+			System.arraycopy( machine.banks[ b ], 0, shadow, b * SpectrumMachine.PAGE_SIZE, SpectrumMachine.PAGE_SIZE );
+		}
+	}
+
+	/** Frames which can be gone back */
+	public int frames() {
+		return Math.max( count - 1, 0 );
+	}
+
+	/** Approximate bytes of memory held, counting every keyframe in full */
+	public long bytes() {
+		long n = deltaBytes + (long) regs.length * 4;
+		for ( int i = 0; i < capacity; i++ ) {
+			if ( keys[ i ] != null ) {
+				n += machine.banks.length * SpectrumMachine.PAGE_SIZE;
+			}
+		}
+		return n;
+	}
+
+	/** Add the current state of the machine as the newest frame */
+	public void record() {
+		machine.takeDirtyChunks( dirty );
+		byte delta[] = encode();
+
+		newest = (newest + 1) % capacity;
+		if ( count < capacity ) {
+			count++;
+		}
+		else
+		if ( deltas[ newest ] != null ) {
+			deltaBytes -= deltas[ newest ].length;
+		}
+
+		machine.saveRegisters( regs, newest * stride );
+		deltas[ newest ] = delta;
+		deltaBytes += delta.length;
+		keys[ newest ] = ((recorded++ % keyInterval) == 0) ? machine.save() : null;
+	}
+
+	/** Put the machine back n frames, or as far as the ring goes, and
+	 *  forget the frames after that. The clock goes back with it, events
+	 *  scheduled on the Z80 stay at their clock times. Returns the frames
+	 *  gone back.
+	 */
+	public int back( int n ) {
+		if ( count == 0 ) {
+			return 0;
+		}
+		n = Math.max( Math.min( n, frames() ), 0 );
+
+		// First undo what has been written since the newest frame
+		machine.takeDirtyChunks( dirty );
+		for ( int chunk = 0; chunk < dirty.length * 64; chunk++ ) {
+			if ( (dirty[ chunk >> 6 ] & (1L << chunk)) != 0 ) {
+				System.arraycopy( shadow, chunk << 8, machine.writable( chunk >> 6 ), (chunk << 8) & 0x3fff, 256 );
+				machine.changedBank( chunk >> 6 );
+			}
+		}
+		machine.takeDirtyChunks( dirty );
+		java.util.Arrays.fill( dirty, 0 );
+
+		// The oldest keyframe at or after the target, if it saves work
+		int key = -1;
+		for ( int i = n; i > KEYFRAME_COST; i-- ) {
+			if ( keys[ position( i ) ] != null ) {
+				key = i;
+				break;
+			}
+		}
+
+		int i = 0;
+		if ( key >= 0 ) {
+			machine.restore( keys[ position( key ) ] );
+			copyToShadow();
+			machine.takeDirtyChunks( dirty );
+			java.util.Arrays.fill( dirty, 0 );
+			drop( key );
+			i = key;
+		}
+
+		for ( ; i < n; i++ ) {
+			apply( deltas[ newest ] );
+			drop( 1 );
+		}
+		machine.refreshWholeScreen();
+
+		machine.restoreRegisters( regs, newest * stride );
+		return n;
+	}
+
+	/** Ring position of the frame n before the newest */
+	private int position( int n ) {
+		return (newest - n + capacity) % capacity;
+	}
+
+	/** Forget the newest n frames */
+	private void drop( int n ) {
+		for ( int i = 0; i < n; i++ ) {
+			deltaBytes -= deltas[ newest ].length;
+			deltas[ newest ] = null;
+			keys[ newest ]   = null;
+			newest = (newest - 1 + capacity) % capacity;
+			count--;
+			recorded--;
+		}
+	}
+
+	/** Runs of changed bytes in the dirty chunks as skip, length and the
+	 *  bytes XOR their old values, which also brings shadow up to date.
+	 */
+	private byte[] encode() {
+		int  pos    = 0;
+		int  last   = 0;
+
+		for ( int chunk = 0; chunk < dirty.length * 64; chunk++ ) {
+			if ( (dirty[ chunk >> 6 ] & (1L << chunk)) == 0 ) {
+				continue;
+			}
+
+			// The chunk's bank, which starts at base in shadow
+			byte mem[] = machine.banks[ chunk >> 6 ];
+			int  base  = (chunk >> 6) << 14;
+
+			int addr = chunk << 8;
+			int end  = addr + 256;
+			while ( addr < end ) {
+				if ( mem[ addr - base ] == shadow[ addr ] ) {
+					addr++;
+					continue;
+				}
+
+				int start  = addr;
+				int runEnd = ++addr;
+				while ( (addr < end) && (addr - runEnd < GAP) ) {
+					if ( mem[ addr - base ] != shadow[ addr ] ) {
+						runEnd = addr + 1;
+					}
+					addr++;
+				}
+				addr = runEnd;
+
+				if ( pos + 8 + (runEnd - start) > out.length ) {
+					byte bigger[] = new byte[ out.length * 2 ];
+					System.arraycopy( out, 0, bigger, 0, pos );
+					out = bigger;
+				}
+				pos = putLength( start - last, pos );
+				pos = putLength( runEnd - start, pos );
+				for ( int i = start; i < runEnd; i++ ) {
+					out[ pos++ ] = (byte) (mem[ i - base ] ^ shadow[ i ]);
+					shadow[ i ] = mem[ i - base ];
+				}
+				last = runEnd;
+			}
+		}
+		java.util.Arrays.fill( dirty, 0 );
+
+		byte delta[] = new byte[ pos ];
+		System.arraycopy( out, 0, delta, 0, pos );
+		return delta;
+	}
+
+	/** Seven bits at a time, top bit set on all but the last byte */
+	private int putLength( int n, int pos ) {
+		while ( n >= 0x80 ) {
+			out[ pos++ ] = (byte) (n | 0x80);
+			n >>>= 7;
+		}
+		out[ pos++ ] = (byte) n;
+		return pos;
+	}
+
+	private int at;
+
+	private int getLength( byte delta[] ) {
+		int n = 0, b;
+		for ( int shift = 0; ; shift += 7 ) {
+			b = delta[ at++ ];
+			n |= (b & 0x7f) << shift;
+			if ( (b & 0x80) == 0 ) {
+				return n;
+			}
+		}
+	}
+
+	/** Undo one frame's difference */
+	private void apply( byte delta[] ) {
+		int  addr  = 0;
+
+		for ( at = 0; at < delta.length; ) {
+			addr   += getLength( delta );
+			int len = getLength( delta );
+			int pos = at;
+
+			// A run never leaves its chunk, so nor its bank
+			byte mem[] = machine.writable( addr >> 14 );
+			int  off   = addr & 0x3fff;
+			for ( int i = 0; i < len; i++ ) {
+				mem[ off + i ]     ^= delta[ pos + i ];
+				shadow[ addr + i ] ^= delta[ pos + i ];
+			}
+			machine.changedBank( addr >> 14 );
+
+			at   += len;
+			addr += len;
+		}
+
+		// apply's own writes are already in shadow
+		machine.takeDirtyChunks( dirty );
+		java.util.Arrays.fill( dirty, 0 );
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * @(#)Scheduler.java
+ */
+
+/**
+ * <p>The Scheduler class holds the timed events of a Z80, such as a tape
+ * edge or an audio sample, in a binary heap ordered by the T-state they are
+ * due at on the Z80's 64-bit clock. Events due at the same T-state fire in
+ * the order they were added.</p>
+ *
+ * <p>Events are added with Z80.schedule. The fetch/execute loop only
+ * compares the T-state counter with one deadline, the earliest of the
+ * interrupt, the end of the run and the first event, so any number of
+ * pending events cost nothing per instruction. An event which repeats
+ * schedules itself again when it fires.</p>
+ *
+ * @see Z80#schedule
+ * @see Z80#clock
+ */
+
+public class Scheduler {
+	/** Something which happens at a given T-state */
+	public interface Event {
+		/** Called on the emulation thread once the clock reaches when */
+		void fire( Z80 z80, long when );
+	}
+
+	private long  when[]   = new long[ 16 ];
+	private long  order[]  = new long[ 16 ];
+	private Event events[] = new Event[ 16 ];
+	private int   size     = 0;
+	private long  added    = 0;
+
+	/** T-state of the earliest event, Long.MAX_VALUE if there is none */
+	public final long next() {
+		return (size == 0) ? Long.MAX_VALUE : when[ 0 ];
+	}
+
+	public final int size() {
+		return size;
+	}
+
+	/** Add event to fire at T-state at */
+	final void add( Event event, long at ) {
+		if ( size == events.length ) {
+			int n = size * 2;
+			long  w[] = new long[ n ];
+			long  o[] = new long[ n ];
+			Event e[] = new Event[ n ];
+			System.arraycopy( when, 0, w, 0, size );
+			System.arraycopy( order, 0, o, 0, size );
+			System.arraycopy( events, 0, e, 0, size );
+			when   = w;
+			order  = o;
+			events = e;
+		}
+
+		int i = size++;
+		set( i, at, added++, event );
+		up( i );
+	}
+
+	/** Remove the earliest event, returns it */
+	final Event poll() {
+		Event event = events[ 0 ];
+		removeAt( 0 );
+		return event;
+	}
+
+	/** Remove every pending firing of event, returns whether there was any */
+	final boolean remove( Event event ) {
+		boolean found = false;
+		for ( int i = size - 1; i >= 0; i-- ) {
+			if ( events[ i ] == event ) {
+				removeAt( i );
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	public final void clear() {
+		for ( int i = 0; i < size; i++ ) {
+			events[ i ] = null;
+		}
+		size = 0;
+	}
+
+	private void removeAt( int i ) {
+		int last = --size;
+		if ( i != last ) {
+			set( i, when[ last ], order[ last ], events[ last ] );
+			events[ last ] = null;
+			down( i );
+			up( i );
+		}
+		else {
+			events[ last ] = null;
+		}
+	}
+
+	private void set( int i, long at, long n, Event event ) {
+		when[ i ]   = at;
+		order[ i ]  = n;
+		events[ i ] = event;
+	}
+
+	private boolean before( int a, int b ) {
+		return (when[ a ] < when[ b ]) || ((when[ a ] == when[ b ]) && (order[ a ] < order[ b ]));
+	}
+
+	private void swap( int a, int b ) {
+		long  w = when[ a ];
+		long  o = order[ a ];
+		Event e = events[ a ];
+		set( a, when[ b ], order[ b ], events[ b ] );
+		set( b, w, o, e );
+	}
+
+	private void up( int i ) {
+		while ( i > 0 ) {
+			int parent = (i - 1) >> 1;
+			if ( !before( i, parent ) ) {
+				break;
+			}
+			swap( i, parent );
+			i = parent;
+		}
+	}
+
+	private void down( int i ) {
+		while ( true ) {
+			int child = 2*i + 1;
+			if ( child >= size ) {
+				break;
+			}
+			if ( (child + 1 < size) && before( child + 1, child ) ) {
+				child++;
+			}
+			if ( !before( child, i ) ) {
+				break;
+			}
+			swap( i, child );
+			i = child;
+		}
+	}
+}
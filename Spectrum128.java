@@ -0,0 +1,210 @@
+/*
+ * @(#)Spectrum128.java
+ */
+import java.io.*;
+
+/**
+ * <p>The Spectrum128 class is the ZX Spectrum 128K hardware: eight 16K RAM
+ * banks, two ROMs and port 7FFD, which picks the bank at C000, the ROM, the
+ * screen shown and can lock itself until the next reset. Bank 5 is always
+ * at 4000 and bank 2 always at 8000, and the screen comes from bank 5 or,
+ * as the shadow screen, from bank 7.</p>
+ *
+ * <p>All of the memory is held as banks by SpectrumMachine, 0 to 7 the RAM
+ * and then the two ROMs, and paging only points the Z80's page table at a
+ * different one, nothing is copied. A bank which ends up at two addresses,
+ * 5 or 2 paged in at C000, is the same array at both. The memory map sends
+ * writes to the screen shown to the screen handler wherever it is paged
+ * in, otherwise the banks are plain RAM as on the 48K machine.</p>
+ *
+ * <p>ROM 0 is the 128K editor and ROM 1 48K BASIC, loadROM takes both as one
+ * 32K file. A 48K snapshot runs with ROM 1 and paging locked, as a 128K in
+ * 48K mode would. Save states, forks and rewinding cover all ten banks,
+ * port 7FFD and the AY registers.</p>
+ *
+ * @see SpectrumMachine
+ */
+
+public class Spectrum128 extends SpectrumMachine {
+	/** Banks 0 to 7 are the RAM, ROM 0 and ROM 1 come after them */
+	private static final int ROM0 = 8;
+
+	private int        port7ffd   = 0;
+	private int        screenBank = 5;
+	/** Whether SCREEN is mapped at 4000 and at C000, as the 48K starts */
+	private boolean    screenLow  = true;
+	private boolean    screenHigh = false;
+	/** Loading a 48K snapshot, with its own page numbers */
+	private boolean    loading48  = false;
+
+	/** Port 7FFD, decoded on A15 and A1 low, write only */
+	private static final Device PAGING = new Device() {
+		public int inb( SpectrumMachine machine, int port ) {
+			return 0xff;
+		}
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			Spectrum128 m = (Spectrum128) machine;
+			if ( (m.port7ffd & 0x20) == 0 ) {
+				m.page( outByte );
+			}
+		}
+	};
+
+	/** The sound chip, its registers at least */
+	public final AY8912 ay = new AY8912();
+
+	public Spectrum128() {
+		// 128K runs at 3.5469Mhz, 311 lines of 228 T-states a frame
+		super( 3.5469, 70908, 10 );
+
+		pageIn( 5, 0x4000 );
+		pageIn( 2, 0x8000 );
+		page( 0 );
+
+		attach( PAGING, 0x8002, 0x0000 );
+		ay.attach( this );
+	}
+
+	/** The last value written to port 7FFD */
+	public int port7ffd() {
+		return port7ffd;
+	}
+
+	public void reset() {
+		port7ffd = 0;
+		page( 0 );
+		ay.reset();
+		super.reset();
+	}
+
+	/** Both ROMs, 0 and then 1, or only one which serves as both */
+	public void loadROM( String name, InputStream is ) throws Exception {
+		DataInputStream in = new DataInputStream( is );
+		in.readFully( writable( ROM0 ) );
+		try {
+			in.readFully( writable( ROM0 + 1 ) );
+		}
+		catch ( EOFException e ) {
+			System.arraycopy( banks[ ROM0 ], 0, writable( ROM0 + 1 ), 0, 16384 );
+		}
+
+		changedBank( ROM0 );
+		changedBank( ROM0 + 1 );
+	}
+
+	/** Page bank n in at C000, and the ROM and screen, from a value written to 7FFD */
+	private void page( int value ) {
+		port7ffd = value;
+
+		int shown = ((value & 0x08) != 0) ? 7 : 5;
+		pageIn( ROM0 + ((value >> 4) & 0x01), 0x0000 );
+		pageIn( value & 0x07, 0xc000 );
+
+		boolean refresh = (shown != screenBank);
+		screenBank = shown;
+		remap();
+
+		if ( refresh ) {
+			refreshWholeScreen();
+		}
+	}
+
+	/** Point the memory map and the screen at the screen shown, at 4000,
+	 *  C000 or both when it is bank 5 paged in twice. Only the SCREEN
+	 *  mappings which move are touched.
+	 */
+	private void remap() {
+		boolean low  = (screenBank == 5);
+		boolean high = ((port7ffd & 0x07) == screenBank);
+
+		if ( low != screenLow ) {
+			mapScreen( 0x4000, low );
+			screenLow = low;
+		}
+		if ( high != screenHigh ) {
+			mapScreen( 0xc000, high );
+			screenHigh = high;
+		}
+		screen = banks[ screenBank ];
+	}
+
+	/** Map SCREEN over the 6912 bytes from addr, or take it off the pages
+	 *  there which still have it and leave any other handler alone.
+	 */
+	private void mapScreen( int addr, boolean on ) {
+		for ( int page = addr; page < addr + 6912; page += 256 ) {
+			if ( on ) {
+				map( page, 256, SCREEN );
+			}
+			else
+			if ( handlerAt( page ) == SCREEN ) {
+				map( page, 256, null );
+			}
+		}
+	}
+
+	protected void snapshotModel( boolean is128, int port7ffd ) throws Exception {
+		// Unlocked, so that the snapshot's own value goes in
+		this.port7ffd = 0;
+		page( is128 ? port7ffd : 0x30 );
+		loading48 = !is128;
+	}
+
+	protected void snapshotAY( int selected, int registers[] ) {
+		ay.load( selected, registers );
+	}
+
+	protected void loadZ80_page( int number, byte page[] ) throws Exception {
+		if ( loading48 ) {
+			// 48K snapshot, pages 8, 4 and 5 are banks 5, 2 and 0
+			switch ( number ) {
+			case 8:  number = 5 + 3; break;
+			case 4:  number = 2 + 3; break;
+			case 5:  number = 0 + 3; break;
+			default: throw new Exception( "Z80 (page): out of range " + number );
+			}
+		}
+
+		// Pages 3 to 10 are banks 0 to 7
+		int bank = number - 3;
+		if ( (bank < 0) || (bank > 7) ) {
+			throw new Exception( "Z80 (page): out of range " + number );
+		}
+		System.arraycopy( page, 0, writable( bank ), 0, 16384 );
+	}
+
+	/** The 48K's registers, then port 7FFD, the AY register selected and
+	 *  the sixteen AY registers.
+	 */
+	int registers() {
+		return REGISTERS + 2 + 16;
+	}
+
+	void saveRegisters( int r[], int o ) {
+		super.saveRegisters( r, o );
+		o += REGISTERS;
+
+		r[o++] = port7ffd;
+		r[o++] = ay.selected();
+		for ( int i = 0; i < 16; i++ ) {
+			r[o++] = ay.register( i );
+		}
+	}
+
+	void restoreRegisters( int r[], int o ) {
+		super.restoreRegisters( r, o );
+		o += REGISTERS;
+
+		page( r[o++] );
+		int selected = r[o++];
+		int values[] = new int[ 16 ];
+		System.arraycopy( r, o, values, 0, 16 );
+		ay.load( selected, values );
+	}
+
+	public SpectrumMachine fork() {
+		Spectrum128 child = new Spectrum128();
+		child.restore( save() );
+		return child;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * @(#)SpectrumFarm.java
+ */
+import java.io.*;
+import java.util.Vector;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>The SpectrumFarm class hosts many independent headless SpectrumMachines
+ * in one JVM. Each step runs every machine for one frame on a fixed pool of
+ * worker threads, sized to the number of cores by default. The workers take
+ * machines from a shared counter, so a slow machine does not hold up the
+ * others, and every machine has run its frame when the step returns.</p>
+ *
+ * <p>All the state of a machine lives in its own SpectrumMachine, nothing is
+ * shared between them but the read only tables of Z80. The machines run at
+ * full speed, pacing them is left to whoever calls runFrames.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java SpectrumFarm [-threads n] [-machines n] [-frames n] rom [snapshot]
+ * </pre>
+ * runs that many copies of the snapshot, or of the ROM on its own, and
+ * prints the combined emulated MHz.</p>
+ *
+ * @see SpectrumMachine
+ */
+
+public class SpectrumFarm {
+	private final Vector<SpectrumMachine> machines = new Vector<SpectrumMachine>();
+	private final int                     nThreads;
+	private final ExecutorService         pool;
+
+	public SpectrumFarm() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	public SpectrumFarm( int _nThreads ) {
+		nThreads = _nThreads;
+		pool = Executors.newFixedThreadPool( nThreads, new ThreadFactory() {
+			private int n = 0;
+
+			public synchronized Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "SpectrumFarm-" + (n++) );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+	}
+
+	public void add( SpectrumMachine machine ) {
+		machines.addElement( machine );
+	}
+
+	public void remove( SpectrumMachine machine ) {
+		machines.removeElement( machine );
+	}
+
+	public int size() {
+		return machines.size();
+	}
+
+	/** Run every machine for n frames, one frame at a time */
+	public void runFrames( int n ) throws Exception {
+		SpectrumMachine all[] = new SpectrumMachine[ machines.size() ];
+		machines.copyInto( all );
+
+		for ( int i = 0; i < n; i++ ) {
+			step( all );
+		}
+	}
+
+	/** Stop the worker threads, the farm can't run after this */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private void step( final SpectrumMachine all[] ) throws Exception {
+		final AtomicInteger next = new AtomicInteger();
+
+		Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+		for ( int i = 0; i < Math.min( nThreads, all.length ); i++ ) {
+			tasks.addElement( new Callable<Object>() {
+				public Object call() {
+					int m;
+					while ( (m = next.getAndIncrement()) < all.length ) {
+						all[ m ].runFrames( 1 );
+					}
+					return null;
+				}
+			} );
+		}
+
+		for ( Future<Object> result : pool.invokeAll( tasks ) ) {
+			try {
+				result.get();
+			}
+			catch ( ExecutionException e ) {
+				if ( e.getCause() instanceof Exception ) {
+					throw (Exception) e.getCause();
+				}
+				throw (Error) e.getCause();
+			}
+		}
+	}
+
+
+	public static void main( String args[] ) throws Exception {
+		int nThreads  = Runtime.getRuntime().availableProcessors();
+		int nMachines = 100;
+		int frames    = 250;
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-threads" ) ) {
+				nThreads = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-machines" ) ) {
+				nMachines = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+		if ( i >= args.length ) {
+			throw new Exception( "Usage: SpectrumFarm [-threads n] [-machines n] [-frames n] rom [snapshot]" );
+		}
+		String romFile  = args[ i ];
+		String snapFile = (i + 1 < args.length) ? args[ i + 1 ] : null;
+
+		SpectrumFarm farm = new SpectrumFarm( nThreads );
+		for ( int m = 0; m < nMachines; m++ ) {
+			SpectrumMachine spectrum = new SpectrumMachine();
+			try ( InputStream is = new FileInputStream( romFile ) ) {
+				spectrum.loadROM( romFile, is );
+			}
+			if ( snapFile != null ) {
+				File snap = new File( snapFile );
+				try ( InputStream is = new FileInputStream( snap ) ) {
+					spectrum.loadSnapshot( snapFile, is, (int) snap.length() );
+				}
+			}
+			farm.add( spectrum );
+		}
+
+		long start = System.nanoTime();
+		farm.runFrames( frames );
+		long ns = System.nanoTime() - start;
+		farm.shutdown();
+
+		double tstates = 0;
+		for ( int m = 0; m < nMachines; m++ ) {
+			SpectrumMachine spectrum = farm.machines.elementAt( m );
+			tstates += (double) frames * spectrum.tstatesPerInterrupt;
+		}
+		System.out.println( nMachines + " machines, " + nThreads + " threads, " +
+			frames + " frames: " + Math.round( tstates * 1000.0 / ns ) + " MHz" );
+
+		if ( Z80.IDLE_SKIP ) {
+			long idle = 0, skips = 0;
+			for ( int m = 0; m < nMachines; m++ ) {
+				SpectrumMachine spectrum = farm.machines.elementAt( m );
+				idle  += spectrum.idleTStates;
+				skips += spectrum.idleSkips;
+			}
+			// Host time the skipped T-states would have taken at the rate the rest ran
+			double busy = tstates - idle;
+			System.out.println( skips + " idle loops skipped, " +
+				Math.round( idle * 100.0 / tstates ) + "% of T-states, about " +
+				Math.round( (busy > 0) ? (idle * (ns / busy) / 1000000.0) : 0 ) + " ms of host time saved" );
+		}
+	}
+}
@@ -0,0 +1,1944 @@
+/*
+ * @(#)SpectrumMachine.java 1.1 27/04/97 Adam Davidson & Andrew Pollard
+ */
+import java.awt.Event;
+import java.io.*;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SpectrumMachine class extends the Z80 class implementing the
+ * supporting hardware emulation which was specific to the ZX Spectrum,
+ * without any user interface. This includes the memory mapped screen,
+ * the keyboard matrix, the IO ports and the interrupt logic. The screen
+ * is rendered into a plain array of pixels so that many machines can be
+ * run in one VM without a display.<P>
+ *
+ * The Spectrum class adds the AWT presentation on top of this through
+ * the protected hooks which do nothing here.<P>
+ *
+ * @version 1.1 27 Apr 1997
+ * @author <A HREF="http://www.odie.demon.co.uk/spectrum">Adam Davidson & Andrew Pollard</A>
+ *
+ * @see Spectrum
+ * @see Z80
+ */
+
+public class SpectrumMachine extends Z80 {
+
+	public SpectrumMachine() {
+		// Spectrum runs at 3.5Mhz, 312 lines of 224 T-states a frame
+		this( 3.5, 69888, 4 );
+	}
+
+	/** A machine with nBanks of 16K memory, the first four paged in */
+	protected SpectrumMachine( double clockFrequencyInMHz, int tstatesPerFrame, int nBanks ) {
+		super( clockFrequencyInMHz, tstatesPerFrame );
+
+		banks       = new byte[ nBanks ][];
+		dirtyChunks = new long[ nBanks ];
+		savedPages  = new byte[ nBanks ][];
+		for ( int b = 0; b < nBanks; b++ ) {
+			banks[ b ] = (b < 4) ? pages[ b ] : new byte[ PAGE_SIZE ];
+		}
+
+		map( 0, 16384, ROM );
+		map( 16384, 6912, SCREEN );
+
+		attach( ULA, 0x0001, 0x0000 );
+		keysChanged();
+	}
+
+	/**
+	 * Z80 hardware interface
+	 */
+	public int inb( int port ) {
+		Device device = ports[ port & 0xff ];
+		return (device == null) ? 0xff : device.inb( this, port );
+	}
+	public void outb( int port, int outByte, int tstates ) {
+		Device device = ports[ port & 0xff ];
+		if ( device != null ) {
+			device.outb( this, port, outByte, tstates );
+		}
+	}
+
+	/** Something on the IO ports, see attach */
+	public interface Device {
+		/** What the device puts on the bus for a read of port, 0xff for nothing */
+		int inb( SpectrumMachine machine, int port );
+		void outb( SpectrumMachine machine, int port, int outByte, int tstates );
+	}
+
+	/** The ULA, on every even port: the keyboard half rows selected by
+	 *  the high byte when read, the border when written.
+	 */
+	public static final Device ULA = new Device() {
+		public int inb( SpectrumMachine machine, int port ) {
+			return machine.keys[ port >> 8 ];
+		}
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			machine.newBorder = (outByte & 0x07);
+		}
+	};
+
+	/** Port decoding, one entry per low byte of the port: null where
+	 *  nothing answers, otherwise the device, or devices, which do.
+	 */
+	private final Device ports[] = new Device[ 256 ];
+
+	/** Devices attached, each with the mask and value it was given */
+	private final Vector<Decoded> attached = new Vector<Decoded>();
+
+	/** Put device on the ports where (port & mask) == value. Lines of the
+	 *  high byte in mask are checked on each access, those of the low byte
+	 *  go into the table. Devices which share a port all see writes to it
+	 *  and what they read is ANDed, as on the real bus.
+	 */
+	public final void attach( Device device, int mask, int value ) {
+		attached.addElement( new Decoded( device, mask, value & mask ) );
+		decodePorts();
+	}
+
+	public final void detach( Device device ) {
+		for ( int i = attached.size() - 1; i >= 0; i-- ) {
+			if ( attached.elementAt( i ).device == device ) {
+				attached.removeElementAt( i );
+			}
+		}
+		decodePorts();
+	}
+
+	private final void decodePorts() {
+		Device table[] = new Device[ 256 ];
+
+		for ( int i = 0; i < attached.size(); i++ ) {
+			Decoded a      = attached.elementAt( i );
+			Device  device = a.device;
+			int     mask   = a.mask;
+			int     value  = a.value;
+
+			if ( (mask & 0xff00) != 0 ) {
+				device = new Decoded( device, mask & 0xff00, value & 0xff00 );
+			}
+			for ( int low = 0; low < 256; low++ ) {
+				if ( (low & mask & 0xff) == (value & 0xff) ) {
+					table[ low ] = (table[ low ] == null) ? device : new Shared( table[ low ], device );
+				}
+			}
+		}
+		System.arraycopy( table, 0, ports, 0, 256 );
+	}
+
+	/** A device which only answers on the ports where (port & mask) == value */
+	private static final class Decoded implements Device {
+		private final Device device;
+		private final int    mask;
+		private final int    value;
+
+		Decoded( Device _device, int _mask, int _value ) {
+			device = _device;
+			mask   = _mask;
+			value  = _value;
+		}
+
+		public int inb( SpectrumMachine machine, int port ) {
+			return ((port & mask) == value) ? device.inb( machine, port ) : 0xff;
+		}
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			if ( (port & mask) == value ) {
+				device.outb( machine, port, outByte, tstates );
+			}
+		}
+	}
+
+	/** Two devices on the same ports */
+	private static final class Shared implements Device {
+		private final Device first;
+		private final Device second;
+
+		Shared( Device _first, Device _second ) {
+			first  = _first;
+			second = _second;
+		}
+
+		public int inb( SpectrumMachine machine, int port ) {
+			return first.inb( machine, port ) & second.inb( machine, port );
+		}
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			first.outb( machine, port, outByte, tstates );
+			second.outb( machine, port, outByte, tstates );
+		}
+	}
+
+	/** What a write to a page of memory does, when it is not plain RAM */
+	public interface PageHandler {
+		void pokeb( SpectrumMachine machine, int addr, int newByte );
+	}
+
+	/** Writes to ROM are lost */
+	public static final PageHandler ROM = ( machine, addr, newByte ) -> { };
+
+	/** The display file and attributes, redrawn as they change */
+	public static final PageHandler SCREEN = ( machine, addr, newByte ) -> machine.pokeScreen( addr, newByte );
+
+	/** Memory map, one entry per 256 byte page: null for plain RAM which
+	 *  is stored straight into pages, otherwise the handler writes go
+	 *  through. Reads always come straight from pages.
+	 */
+	private final PageHandler writeMap[] = new PageHandler[ 256 ];
+
+	/** Send writes to len bytes from addr, in whole 256 byte pages, to
+	 *  handler, or with null store them as plain RAM. Taps on the pages
+	 *  stay, with handler under them.
+	 */
+	public final void map( int addr, int len, PageHandler handler ) {
+		for ( int page = addr >> 8; page < ((addr + len) >> 8); page++ ) {
+			Tap tap = null;
+			for ( PageHandler h = writeMap[ page ]; h instanceof Tap; h = ((Tap) h).under ) {
+				tap = (Tap) h;
+			}
+			if ( tap == null ) {
+				writeMap[ page ] = handler;
+			}
+			else {
+				tap.under = handler;
+			}
+		}
+	}
+
+	/** The handler mapped for writes to addr, under any taps, null for
+	 *  plain RAM.
+	 */
+	public final PageHandler handlerAt( int addr ) {
+		PageHandler h = writeMap[ addr >> 8 ];
+		while ( h instanceof Tap ) {
+			h = ((Tap) h).under;
+		}
+		return h;
+	}
+
+	/** A handler put over the 256 byte page at addr, whatever is mapped
+	 *  there, which sees every write to it first and passes it on. A
+	 *  debugger's watchpoints are taps.
+	 */
+	public static abstract class Tap implements PageHandler {
+		private PageHandler under;
+
+		/** Write as the page would have been written without the tap */
+		protected final void pass( SpectrumMachine machine, int addr, int newByte ) {
+			if ( under == null ) {
+				machine.pokeRam( addr, newByte );
+			}
+			else {
+				under.pokeb( machine, addr, newByte );
+			}
+		}
+	}
+
+	/** Put tap over the page at addr, on top of any taps already there */
+	public final void tap( int addr, Tap tap ) {
+		tap.under = writeMap[ addr >> 8 ];
+		writeMap[ addr >> 8 ] = tap;
+	}
+
+	/** Take tap off the page at addr again */
+	public final void untap( int addr, Tap tap ) {
+		PageHandler h = writeMap[ addr >> 8 ];
+		if ( h == tap ) {
+			writeMap[ addr >> 8 ] = tap.under;
+			return;
+		}
+		for ( ; h instanceof Tap; h = ((Tap) h).under ) {
+			if ( ((Tap) h).under == tap ) {
+				((Tap) h).under = tap.under;
+				return;
+			}
+		}
+	}
+
+	/** Byte access */
+	public void pokeb( int addr, int newByte ) {
+		PageHandler handler = writeMap[ addr >> 8 ];
+		if ( handler == null ) {
+			pokeRam( addr, newByte );
+			return;
+		}
+		handler.pokeb( this, addr, newByte );
+	}
+
+	private final void pokeRam( int addr, int newByte ) {
+		written[ addr >> 14 ] |= 1L << (addr >> 8);
+		pages[ addr >> 14 ][ addr & 0x3fff ] = (byte) newByte;
+	}
+
+	// Word access
+	public void pokew( int addr, int word ) {
+		if ( ((addr & 0xff) != 0xff) && (writeMap[ addr >> 8 ] == null) ) {
+			// Both bytes in the same page of plain RAM
+			written[ addr >> 14 ] |= 1L << (addr >> 8);
+			WORD.set( pages[ addr >> 14 ], addr & 0x3fff, (short) word );
+			return;
+		}
+		pokeb( addr, word & 0xff );
+		pokeb( (addr + 1) & 0xffff, word >> 8 );
+	}
+
+	private final void pokeScreen( int addr, int newByte ) {
+		byte page[] = pages[ addr >> 14 ];
+		int  offset = addr & 0x3fff;
+		if ( page[ offset ] != (byte) newByte ) {
+			written[ addr >> 14 ] |= 1L << (addr >> 8);
+			plot( offset, newByte );
+			page[ offset ] = (byte) newByte;
+		}
+	}
+
+	/** Since execute runs as a tight loop, some Java VM implementations
+	 *  don't allow any other threads to get a look in. This give the
+	 *  GUI time to update. If anyone has a better solution please 
+	 *  email us at mailto:spectrum@odie.demon.co.uk
+	 */
+	public  int     sleepHack = 0;
+	public  int     refreshRate = 1;  // refresh every 'n' interrupts
+
+	private int     interruptCounter = 0;
+	private boolean resetAtNextInterrupt = false;
+	protected volatile boolean pauseAtNextInterrupt = false;
+	protected volatile boolean refreshNextInterrupt = true;
+
+	/** The thread waiting in pause, null while running */
+	public  volatile Thread pausedThread = null;
+	public  Rewind  rewinder = null;
+	private volatile int rewindFrames = 0;
+	public  long    timeOfLastInterrupt = 0;
+	public  final FramePacer pacer = new FramePacer( framesPerSecond() );
+
+
+	public final int interrupt() {
+		runPending();
+
+		if ( pauseAtNextInterrupt ) {
+			pausedThread = Thread.currentThread();
+			pause();
+			pausedThread = null;
+			pacer.reset();
+		}
+
+		if ( rewinder != null ) {
+			int n = rewindFrames;
+			if ( n > 0 ) {
+				rewindFrames = 0;
+				rewinder.back( n );
+			}
+			else {
+				rewinder.record();
+			}
+		}
+
+		if ( refreshNextInterrupt ) {
+			refreshNextInterrupt = false;
+			oldBorder = -1;
+			paintBuffer();
+		}
+
+		if ( resetAtNextInterrupt ) {
+			resetAtNextInterrupt = false;
+			reset();
+		}
+
+		interruptCounter++;
+
+		// Characters flash every 1/2 a second
+		if ( (interruptCounter % 25) == 0 ) {
+			refreshFlashChars();
+		}
+
+		// Update speed indicator every 2 seconds of 'Spectrum time'
+		if ( (interruptCounter % 100) == 0 ) {
+			refreshSpeed();
+		}
+
+		// Refresh every interrupt by default
+		if ( fastForward ) {
+			fastForwardPaint();
+		}
+		else
+		if ( (interruptCounter % refreshRate) == 0 ) {
+			screenPaint();
+		}
+
+		// Slow to 100%, a frame every tstatesPerInterrupt T-states of the clock
+		if ( !runAtFullSpeed && !fastForward ) {
+			pacer.pace();
+		}
+
+		timeOfLastInterrupt = System.currentTimeMillis();
+
+		// This was put in to handle Netscape 2 which was prone to
+		// locking up if one thread never gave up its timeslice.
+		if ( sleepHack > 0 ) {
+			try { Thread.sleep( sleepHack ); }
+			catch ( Exception ignored ) {}
+		}
+		
+		return super.interrupt();
+	}
+
+	/** Wait at an interrupt until resumed. */
+	protected void pause() {
+		while ( pauseAtNextInterrupt ) {
+			if ( refreshNextInterrupt ) {
+				refreshNextInterrupt = false;
+				oldBorder = -1;
+				paintBuffer();
+			}
+			runPending();
+			waitForWake( 500 );
+		}
+	}
+
+	/** Work for the emulation thread, see invokeAtInterrupt */
+	private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+
+	/** Run task on the emulation thread at the next interrupt, or while
+	 *  it waits in a pause, such as loading a snapshot.
+	 */
+	public final void invokeAtInterrupt( Runnable task ) {
+		pending.add( task );
+		wake();
+	}
+
+	/** Run the tasks given to invokeAtInterrupt, on the emulation thread */
+	protected final void runPending() {
+		Runnable task;
+		while ( (task = pending.poll()) != null ) {
+			task.run();
+		}
+	}
+
+	/** Go back n frames at the next interrupt, if rewinder is set */
+	public void rewind( int n ) {
+		rewindFrames += n;
+		wake();
+	}
+
+	/** Pause at the next interrupt, or resume if a pause has been asked
+	 *  for, whether or not it has been taken yet.
+	 */
+	public void pauseOrResume() {
+		if ( !pauseAtNextInterrupt ) {
+			pauseAtNextInterrupt = true;
+		}
+		else {
+			resume();
+		}
+	}
+
+	/** End a pause, or cancel one which has not been taken yet */
+	public void resume() {
+		pauseAtNextInterrupt = false;
+		wake();
+	}
+
+	public void repaint() {
+		refreshNextInterrupt = true;
+		wake();
+	}
+
+	/** A lock rather than wait/notify, so that a machine paused on a
+	 *  virtual thread gives up its carrier thread while it waits.
+	 */
+	private final ReentrantLock wakeLock  = new ReentrantLock();
+	private final Condition     wakeUp    = wakeLock.newCondition();
+	private boolean             wakeSoon  = false;
+
+	/** Block the emulation thread for up to ms milliseconds, or until wake */
+	protected final void waitForWake( long ms ) {
+		wakeLock.lock();
+		try {
+			if ( !wakeSoon ) {
+				wakeUp.await( ms, TimeUnit.MILLISECONDS );
+			}
+			wakeSoon = false;
+		}
+		catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			wakeLock.unlock();
+		}
+	}
+
+	/** Cut short the current or next waitForWake */
+	public final void wake() {
+		wakeLock.lock();
+		try {
+			wakeSoon = true;
+			wakeUp.signalAll();
+		}
+		finally {
+			wakeLock.unlock();
+		}
+	}
+
+	public void reset() {
+		super.reset();
+
+		outb( 254, 0xff, 0 ); // White border on startup
+	}
+
+	/**
+	 * Screen stuff
+	 */
+	public static final int nPixelsWide = 256;
+	public static final int nPixelsHigh = 192;
+	public static final int nCharsWide  = 32;
+	public static final int nCharsHigh  = 24;
+
+	/** ARGB colors, the normal colors are at 238 of 255 */
+	public static final int palette[] = {
+		0xff000000, 0xff0000ee, 0xffee0000, 0xffee00ee,
+		0xff00ee00, 0xff00eeee, 0xffeeee00, 0xffeeeeee,
+		0xff000000, 0xff0000ff, 0xffff0000, 0xffff00ff,
+		0xff00ff00, 0xff00ffff, 0xffffff00, 0xffffffff
+	};
+
+	/** The four pixels of every nibble in every attribute, flash left
+	 *  out, from NIBBLES[ (attr & 0x7f) << 6 | nibble << 2 ] on.
+	 */
+	private static final int NIBBLES[] = new int[ 128*16*4 ];
+	static {
+		for ( int attr = 0; attr < 128; attr++ ) {
+			int bright = ((attr>>3) & 0x08);
+			int ink = palette[ ((attr   ) & 0x07) | bright ];
+			int pap = palette[ ((attr>>3) & 0x07) | bright ];
+
+			for ( int nibble = 0; nibble < 16; nibble++ ) {
+				for ( int i = 0; i < 4; i++ ) {
+					NIBBLES[ (attr << 6) | (nibble << 2) | i ] = ((nibble & (8 >> i)) == 0) ? pap : ink;
+				}
+			}
+		}
+	}
+	private static final int firstAttr = (nPixelsHigh*nCharsWide);
+	private static final int lastAttr  = firstAttr + (nCharsHigh*nCharsWide);
+
+	/** first screen line in linked list to be redrawn */
+	private int first = -1;
+	/** first attribute in linked list to be redrawn */
+	private int FIRST = -1;
+	private final int last[] = new int[ (nPixelsHigh+nCharsHigh)*nCharsWide ];
+	private final int next[] = new int[ (nPixelsHigh+nCharsHigh)*nCharsWide ];
+	
+	/** The page the screen shown is at the start of */
+	protected byte screen[]  = pages[ 1 ];
+
+	public int newBorder = 7;  // White border on startup
+	public int oldBorder = -1; // -1 mean update screen
+
+	/** The screen as ARGB pixels, nPixelsWide by nPixelsHigh */
+	public final int pixels[] = new int[ nPixelsWide*nPixelsHigh ];
+
+	public long oldTime = 0;
+	public int newSpeed = 0;
+
+	private boolean flashInvert = false;
+
+
+	public void refreshSpeed() {
+		long newTime = timeOfLastInterrupt;
+
+		if ( oldTime != 0 ) {
+			newSpeed = (int) (1e7 / framesPerSecond() / (newTime - oldTime));
+		}
+
+		oldTime = newTime;
+	}
+
+	private final void refreshFlashChars() {
+		flashInvert = !flashInvert;
+
+		for ( int i = firstAttr; i < lastAttr; i++ ) {
+			int attr = screen[ i ] & 0xff;
+
+			if ( (attr & 0x80) != 0 ) {
+				last[i] = (~attr) & 0xff;
+
+				// Only add to update list if not already marked 
+				if ( next[i] == -1 ) {
+					next[i] = FIRST;
+					FIRST = i;
+				}
+			}
+		}
+	}
+
+	public void refreshWholeScreen() {
+		showMessage( "Drawing Off-Screen Buffer" );
+
+		for ( int i = 0; i < firstAttr; i++ ) {
+			next[ i ] = i-1;
+			last[ i ] = (~screen[ i ]) & 0xff;
+		}
+
+		for ( int i = firstAttr; i < lastAttr; i++ ) {
+			next[ i ] = -1;
+			last[ i ] = screen[ i ] & 0xff;
+		}
+
+		first = firstAttr - 1;
+		FIRST = -1;
+
+		oldBorder = -1;
+	}
+
+	/** Note that the screen byte at offset in screen changed */
+	protected final void plot( int offset, int newByte ) {
+		if ( next[ offset ] == -1 ) {
+			if ( offset < firstAttr ) {
+				next[ offset ] = first;
+				first = offset;
+			}
+			else {
+				next[ offset ] = FIRST;
+				FIRST = offset;
+			}
+		}
+	}
+
+ 	public boolean	runAtFullSpeed = true;
+
+	/** Run unpaced and paint only about presentRate frames a second,
+	 *  and never let painting take more than 1 in RENDER_SHARE of the time.
+	 */
+	public  boolean fastForward = false;
+	public  int     presentRate = 50;
+	/** Frames run per frame painted, while fast forwarding */
+	public  int     frameSkip   = 1;
+
+	private static final int RENDER_SHARE = 10;
+
+	private int     framesSincePaint = 0;
+	private long    lastFrameStart = 0;
+	private long    frameNs = 0;  // Running averages, ignoring painting
+	private long    paintNs = 0;
+
+	private final void fastForwardPaint() {
+		long now = System.nanoTime();
+		if ( lastFrameStart != 0 ) {
+			frameNs = average( frameNs, now - lastFrameStart );
+		}
+
+		if ( ++framesSincePaint >= frameSkip ) {
+			framesSincePaint = 0;
+			screenPaint();
+
+			long painted = System.nanoTime();
+			paintNs = average( paintNs, painted - now );
+			now = painted;
+
+			if ( frameNs > 0 ) {
+				long byRate = (1000000000L / presentRate) / frameNs;
+				long byCost = (paintNs * (RENDER_SHARE - 1)) / frameNs;
+				// At most doubling, so one slow frame can't stop painting
+				long skip   = Math.min( Math.max( byRate, byCost ), frameSkip * 2L );
+				frameSkip = (int) Math.max( 1, skip );
+			}
+		}
+		lastFrameStart = now;
+	}
+
+	private static final long average( long average, long sample ) {
+		return (average == 0) ? sample : average + (sample - average) / 8;
+	}
+
+	/** Switch fast forward on or off */
+	public void toggleFastForward() {
+		fastForward      = !fastForward;
+		frameSkip        = 1;
+		framesSincePaint = 0;
+		lastFrameStart   = 0;
+		refreshNextInterrupt = true;
+	}
+
+	/** Status messages are only shown by a user interface. */
+	public void showMessage( String m ) {
+	}
+
+	public final void screenPaint() {
+		int addr   = FIRST;
+		byte scr[] = screen;
+
+		// Update attribute affected pixels
+		while ( addr >= 0 ) {
+			int        oldAttr = last[ addr ];
+			int        newAttr = scr[ addr ] & 0xff;
+			last[ addr ] = newAttr;
+
+			boolean    inkChange    = ((oldAttr & 0x47) != (newAttr & 0x47));
+			boolean    papChange    = ((oldAttr & 0x78) != (newAttr & 0x78));
+			boolean    flashChange  = ((oldAttr & 0x80) != (newAttr & 0x80));
+
+			if ( inkChange || papChange || flashChange ) {
+				boolean    allChange = ((inkChange && papChange) || flashChange);
+				int        scrAddr   = ((addr & 0x300) << 3) | (addr & 0xff);
+
+				for ( int i = 8; i != 0; i-- ) {
+
+					if ( allChange ) {
+						last[ scrAddr ] = ((~scr[ scrAddr ]) & 0xff);
+					}
+					else {
+						int	oldPixels = last[ scrAddr ];
+						int	newPixels = scr[ scrAddr ] & 0xff;
+						int	changes = oldPixels ^ newPixels;
+
+						if ( inkChange ) {
+							changes |=  newPixels;
+						}
+						else {
+							changes |= ((~newPixels) & 0xff);
+						}
+						if ( changes == 0 ) {
+							scrAddr += 256;
+							continue;
+						}
+						last[ scrAddr ] = changes ^ newPixels;
+					}
+
+					if ( next[ scrAddr ] == -1 ) {
+						next[ scrAddr ] = first;
+						first = scrAddr;
+					}
+
+					scrAddr += 256;
+				}
+			}
+
+			int        newAddr = next[ addr ];
+			next[ addr ] = -1;
+			addr = newAddr;
+		}
+		FIRST = -1;
+
+		// Only update screen if necessary
+		if ( first < 0 ) {
+			return;
+		}
+
+		// Update affected pixels
+                addr     = first;
+		while ( addr >= 0 ) {
+			int oldPixels = last[ addr ];
+			int newPixels = scr[ addr ] & 0xff;
+			int changes   = oldPixels ^ newPixels;
+			last[ addr ] = newPixels;
+
+			int x = ((addr&0x1f) << 3);
+			int y = (((int)(addr&0x00e0))>>2) + 
+				(((int)(addr&0x0700))>>8) +
+				(((int)(addr&0x1800))>>5);
+
+			int attr = scr[ firstAttr + (addr&0x1f) + ((y>>3)*nCharsWide) ] & 0xff;
+
+			// Swap colors around if doing flash
+			if ( flashInvert && ((attr & 0x80) != 0) ) {
+				newPixels = (~newPixels & 0xff);
+			}
+
+			// Redraw the changed pixels
+			drawByte( x, y, attr, newPixels, changes );
+
+			int        newAddr = next[ addr ];
+			next[ addr ] = -1;
+			addr = newAddr;
+		}
+		first = -1;
+
+		paintBuffer();
+	}
+
+	/** Draw the eight pixels of a screen byte at x,y, changes has a bit
+	 *  set for each pixel which needs redrawing.
+	 */
+	protected void drawByte( int x, int y, int attr, int newPixels, int changes ) {
+		int px[] = pixels;
+		int p    = (y*nPixelsWide) + x;
+		int hi   = ((attr & 0x7f) << 6) | ((newPixels >> 4) << 2);
+		int lo   = ((attr & 0x7f) << 6) | ((newPixels & 0x0f) << 2);
+
+		px[ p   ] = NIBBLES[ hi   ];
+		px[ p+1 ] = NIBBLES[ hi+1 ];
+		px[ p+2 ] = NIBBLES[ hi+2 ];
+		px[ p+3 ] = NIBBLES[ hi+3 ];
+		px[ p+4 ] = NIBBLES[ lo   ];
+		px[ p+5 ] = NIBBLES[ lo+1 ];
+		px[ p+6 ] = NIBBLES[ lo+2 ];
+		px[ p+7 ] = NIBBLES[ lo+3 ];
+	}
+
+	/** Show the rendered screen and border. */
+	public void paintBuffer() {
+	}
+
+	/** Handle Keyboard */
+	private static final int b4 = 0x10;
+	private static final int b3 = 0x08;
+	private static final int b2 = 0x04;
+	private static final int b1 = 0x02;
+	private static final int b0 = 0x01;
+
+	private int _B_SPC  = 0xff;
+	private int _H_ENT  = 0xff;
+	private int _Y_P    = 0xff;
+	private int _6_0    = 0xff;
+	private int _1_5    = 0xff;
+	private int _Q_T    = 0xff;
+	private int _A_G    = 0xff;
+	private int _CAPS_V = 0xff;
+
+	/** What the ULA reads for each high byte of the port, the half rows
+	 *  whose address lines are low ANDed together.
+	 */
+	private final int keys[] = new int[ 256 ];
+
+	/** Rebuild keys after the half rows changed */
+	private final void keysChanged() {
+		// Half rows by address line, A8 to A15
+		int rows[] = { _CAPS_V, _A_G, _Q_T, _1_5, _6_0, _Y_P, _H_ENT, _B_SPC };
+
+		keys[ 0xff ] = 0xff;
+		for ( int low = 1; low < 256; low++ ) {
+			// The same lines as low with its lowest one left out, and that row
+			keys[ 0xff ^ low ] = keys[ 0xff ^ (low & (low - 1)) ] & rows[ Integer.numberOfTrailingZeros( low ) ];
+		}
+	}
+
+	public void resetKeyboard() {
+		_B_SPC  = 0xff;
+		_H_ENT  = 0xff;
+		_Y_P    = 0xff;
+		_6_0    = 0xff;
+		_1_5    = 0xff;
+		_Q_T    = 0xff;
+		_A_G    = 0xff;
+		_CAPS_V = 0xff;
+		keysChanged();
+	}
+
+	private final void K1( boolean down ) {
+		if ( down ) _1_5 &= ~b0; else _1_5 |= b0;
+	}
+	private final void K2( boolean down ) {
+		if ( down ) _1_5 &= ~b1; else _1_5 |= b1;
+	}
+	private final void K3( boolean down ) {
+		if ( down ) _1_5 &= ~b2; else _1_5 |= b2;
+	}
+	private final void K4( boolean down ) {
+		if ( down ) _1_5 &= ~b3; else _1_5 |= b3;
+	}
+	private final void K5( boolean down ) {
+		if ( down ) _1_5 &= ~b4; else _1_5 |= b4;
+	}
+
+	private final void K6( boolean down ) {
+		if ( down ) _6_0 &= ~b4; else _6_0 |= b4;
+	}
+	private final void K7( boolean down ) {
+		if ( down ) _6_0 &= ~b3; else _6_0 |= b3;
+	}
+	private final void K8( boolean down ) {
+		if ( down ) _6_0 &= ~b2; else _6_0 |= b2;
+	}
+	private final void K9( boolean down ) {
+		if ( down ) _6_0 &= ~b1; else _6_0 |= b1;
+	}
+	private final void K0( boolean down ) {
+		if ( down ) _6_0 &= ~b0; else _6_0 |= b0;
+	}
+
+
+	private final void KQ( boolean down ) {
+		if ( down ) _Q_T &= ~b0; else _Q_T |= b0;
+	}
+	private final void KW( boolean down ) {
+		if ( down ) _Q_T &= ~b1; else _Q_T |= b1;
+	}
+	private final void KE( boolean down ) {
+		if ( down ) _Q_T &= ~b2; else _Q_T |= b2;
+	}
+	private final void KR( boolean down ) {
+		if ( down ) _Q_T &= ~b3; else _Q_T |= b3;
+	}
+	private final void KT( boolean down ) {
+		if ( down ) _Q_T &= ~b4; else _Q_T |= b4;
+	}
+
+	private final void KY( boolean down ) {
+		if ( down ) _Y_P &= ~b4; else _Y_P |= b4;
+	}
+	private final void KU( boolean down ) {
+		if ( down ) _Y_P &= ~b3; else _Y_P |= b3;
+	}
+	private final void KI( boolean down ) {
+		if ( down ) _Y_P &= ~b2; else _Y_P |= b2;
+	}
+	private final void KO( boolean down ) {
+		if ( down ) _Y_P &= ~b1; else _Y_P |= b1;
+	}
+	private final void KP( boolean down ) {
+		if ( down ) _Y_P &= ~b0; else _Y_P |= b0;
+	}
+
+
+	private final void KA( boolean down ) {
+		if ( down ) _A_G &= ~b0; else _A_G |= b0;
+	}
+	private final void KS( boolean down ) {
+		if ( down ) _A_G &= ~b1; else _A_G |= b1;
+	}
+	private final void KD( boolean down ) {
+		if ( down ) _A_G &= ~b2; else _A_G |= b2;
+	}
+	private final void KF( boolean down ) {
+		if ( down ) _A_G &= ~b3; else _A_G |= b3;
+	}
+	private final void KG( boolean down ) {
+		if ( down ) _A_G &= ~b4; else _A_G |= b4;
+	}
+
+	private final void KH( boolean down ) {
+		if ( down ) _H_ENT &= ~b4; else _H_ENT |= b4;
+	}
+	private final void KJ( boolean down ) {
+		if ( down ) _H_ENT &= ~b3; else _H_ENT |= b3;
+	}
+	private final void KK( boolean down ) {
+		if ( down ) _H_ENT &= ~b2; else _H_ENT |= b2;
+	}
+	private final void KL( boolean down ) {
+		if ( down ) _H_ENT &= ~b1; else _H_ENT |= b1;
+	}
+	private final void KENT( boolean down ) {
+		if ( down ) _H_ENT &= ~b0; else _H_ENT |= b0;
+	}
+
+
+	private final void KCAPS( boolean down ) {
+		if ( down ) _CAPS_V &= ~b0; else _CAPS_V |= b0;
+	}
+	private final void KZ( boolean down ) {
+		if ( down ) _CAPS_V &= ~b1; else _CAPS_V |= b1;
+	}
+	private final void KX( boolean down ) {
+		if ( down ) _CAPS_V &= ~b2; else _CAPS_V |= b2;
+	}
+	private final void KC( boolean down ) {
+		if ( down ) _CAPS_V &= ~b3; else _CAPS_V |= b3;
+	}
+	private final void KV( boolean down ) {
+		if ( down ) _CAPS_V &= ~b4; else _CAPS_V |= b4;
+	}
+
+	private final void KB( boolean down ) {
+		if ( down ) _B_SPC &= ~b4; else _B_SPC |= b4;
+	}
+	private final void KN( boolean down ) {
+		if ( down ) _B_SPC &= ~b3; else _B_SPC |= b3;
+	}
+	private final void KM( boolean down ) {
+		if ( down ) _B_SPC &= ~b2; else _B_SPC |= b2;
+	}
+	private final void KSYMB( boolean down ) {
+		if ( down ) _B_SPC &= ~b1; else _B_SPC |= b1;
+	}
+	private final void KSPC( boolean down ) {
+		if ( down ) _B_SPC &= ~b0; else _B_SPC |= b0;
+	}
+
+	public final boolean doKey( boolean down, int ascii, int mods ) {
+		boolean    CAPS = ((mods & Event.CTRL_MASK) != 0);
+		boolean    SYMB = ((mods & Event.META_MASK) != 0);
+		boolean   SHIFT = ((mods & Event.SHIFT_MASK) != 0);
+
+		// Change control versions of keys to lower case
+		if ( (ascii >= 1) && (ascii <= 0x27) && SYMB ) {
+			ascii += ('a'-1);
+		}
+
+		switch ( ascii ) {
+		case 'a':    KA( down );    break;
+		case 'b':    KB( down );    break;
+		case 'c':    KC( down );    break;
+		case 'd':    KD( down );    break;
+		case 'e':    KE( down );    break;
+		case 'f':    KF( down );    break;
+		case 'g':    KG( down );    break;
+		case 'h':    KH( down );    break;
+		case 'i':    KI( down );    break;
+		case 'j':    KJ( down );    break;
+		case 'k':    KK( down );    break;
+		case 'l':    KL( down );    break;
+		case 'm':    KM( down );    break;
+		case 'n':    KN( down );    break;
+		case 'o':    KO( down );    break;
+		case 'p':    KP( down );    break;
+		case 'q':    KQ( down );    break;
+		case 'r':    KR( down );    break;
+		case 's':    KS( down );    break;
+		case 't':    KT( down );    break;
+		case 'u':    KU( down );    break;
+		case 'v':    KV( down );    break;
+		case 'w':    KW( down );    break;
+		case 'x':    KX( down );    break;
+		case 'y':    KY( down );    break;
+		case 'z':    KZ( down );    break;
+		case '0':    K0( down );    break;
+		case '1':    K1( down );    break;
+		case '2':    K2( down );    break;
+		case '3':    K3( down );    break;
+		case '4':    K4( down );    break;
+		case '5':    K5( down );    break;
+		case '6':    K6( down );    break;
+		case '7':    K7( down );    break;
+		case '8':    K8( down );    break;
+		case '9':    K9( down );    break;
+		case ' ':    CAPS = SHIFT;  KSPC( down );  break;
+
+		case 'A':    CAPS = true;   KA( down );    break;
+		case 'B':    CAPS = true;   KB( down );    break;
+		case 'C':    CAPS = true;   KC( down );    break;
+		case 'D':    CAPS = true;   KD( down );    break;
+		case 'E':    CAPS = true;   KE( down );    break;
+		case 'F':    CAPS = true;   KF( down );    break;
+		case 'G':    CAPS = true;   KG( down );    break;
+		case 'H':    CAPS = true;   KH( down );    break;
+		case 'I':    CAPS = true;   KI( down );    break;
+		case 'J':    CAPS = true;   KJ( down );    break;
+		case 'K':    CAPS = true;   KK( down );    break;
+		case 'L':    CAPS = true;   KL( down );    break;
+		case 'M':    CAPS = true;   KM( down );    break;
+		case 'N':    CAPS = true;   KN( down );    break;
+		case 'O':    CAPS = true;   KO( down );    break;
+		case 'P':    CAPS = true;   KP( down );    break;
+		case 'Q':    CAPS = true;   KQ( down );    break;
+		case 'R':    CAPS = true;   KR( down );    break;
+		case 'S':    CAPS = true;   KS( down );    break;
+		case 'T':    CAPS = true;   KT( down );    break;
+		case 'U':    CAPS = true;   KU( down );    break;
+		case 'V':    CAPS = true;   KV( down );    break;
+		case 'W':    CAPS = true;   KW( down );    break;
+		case 'X':    CAPS = true;   KX( down );    break;
+		case 'Y':    CAPS = true;   KY( down );    break;
+		case 'Z':    CAPS = true;   KZ( down );    break;
+
+		case '!':    SYMB = true;   K1( down );   break;
+		case '@':    SYMB = true;   K2( down );   break;
+		case '#':    SYMB = true;   K3( down );   break;
+		case '$':    SYMB = true;   K4( down );   break;
+		case '%':    SYMB = true;   K5( down );   break;
+		case '&':    SYMB = true;   K6( down );   break;
+		case '\'':   SYMB = true;   K7( down );   break;
+		case '(':    SYMB = true;   K8( down );   break;
+		case ')':    SYMB = true;   K9( down );   break;
+		case '_':    SYMB = true;   K0( down );   break;
+
+		case '<':    SYMB = true;   KR( down );   break;
+		case '>':    SYMB = true;   KT( down );   break;
+		case ';':    SYMB = true;   KO( down );   break;
+		case '"':    SYMB = true;   KP( down );   break;
+		case '^':    SYMB = true;   KH( down );   break;
+		case '-':    SYMB = true;   KJ( down );   break;
+		case '+':    SYMB = true;   KK( down );   break;
+		case '=':    SYMB = true;   KL( down );   break;
+		case ':':    SYMB = true;   KZ( down );   break;
+		case '\u00a3': SYMB = true;   KX( down );   break;
+		case '?':    SYMB = true;   KC( down );   break;
+		case '/':    SYMB = true;   KV( down );   break;
+		case '*':    SYMB = true;   KB( down );   break;
+		case ',':    SYMB = true;   KN( down );   break;
+		case '.':    SYMB = true;   KM( down );   break;
+
+		case '[':    SYMB = true;   KY( down );   break;
+		case ']':    SYMB = true;   KU( down );   break;
+		case '~':    SYMB = true;   KA( down );   break;
+		case '|':    SYMB = true;   KS( down );   break;
+		case '\\':   SYMB = true;   KD( down );   break;
+		case '{':    SYMB = true;   KF( down );   break;
+		case '}':    SYMB = true;   KF( down );   break;
+
+		case '\n':
+		case '\r':   CAPS = SHIFT; KENT( down );    break;
+		case '\t':   CAPS = true; SYMB = true; break;
+
+		case '\b':
+		case 127:    CAPS = true; K0( down );    break;
+
+		case Event.F1: CAPS = true; K1( down ); break;
+		case Event.F2: CAPS = true; K2( down ); break;
+		case Event.F3: CAPS = true; K3( down ); break;
+		case Event.F4: CAPS = true; K4( down ); break;
+		case Event.F5: CAPS = true; K5( down ); break;
+		case Event.F6: CAPS = true; K6( down ); break;
+		case Event.F7: CAPS = true; K7( down ); break;
+		case Event.F8: CAPS = true; K8( down ); break;
+		case Event.F9: CAPS = true; K9( down ); break;
+		case Event.F10: CAPS = true; K0( down ); break;
+		case Event.F11: CAPS = true; break;
+ 		case Event.F12: SYMB = true; break;
+
+		case Event.LEFT:    CAPS = SHIFT; K5( down );    break;
+		case Event.DOWN:    CAPS = SHIFT; K6( down );    break;
+		case Event.UP:      CAPS = SHIFT; K7( down );    break;
+		case Event.RIGHT:   CAPS = SHIFT; K8( down );    break;
+					
+		case Event.END: {
+				if ( down ) {
+					resetAtNextInterrupt = true;
+				}
+				break;
+			}
+		case Event.PGDN: {
+				if ( down ) {
+					toggleFastForward();
+				}
+				break;
+			}
+		case Event.PGUP: {
+				if ( down ) {
+					rewind( 50 );
+				}
+				break;
+			}
+		case '\033': // ESC
+		case Event.HOME: {
+				if ( down ) {
+					pauseOrResume();
+				}
+				break;
+			}
+
+		default:
+			return false;
+		}
+
+		KSYMB( SYMB & down );
+		KCAPS( CAPS & down );
+		keysChanged();
+
+		return true;
+	}
+
+
+	/** LDIR and LDDR, which don't overlap their own source, in bulk */
+	protected void copyBlock( int dest, int from, int len, int step ) {
+		boolean overlaps = (step > 0) ?
+			((dest > from) && (dest < from + len)) :
+			((dest < from) && (dest > from - len));
+		if ( overlaps ) {
+			super.copyBlock( dest, from, len, step );
+			return;
+		}
+
+		int lo     = (step > 0) ? dest : dest - len + 1;
+		int fromLo = (step > 0) ? from : from - len + 1;
+
+		// A page, or a run of plain RAM pages, at a time in the order
+		// LDIR or LDDR would go, as the copy may overlap its source
+		for ( int done = 0; done < len; ) {
+			int i, n;
+			PageHandler handler;
+			if ( step > 0 ) {
+				i = done;
+				n = i;
+				handler = writeMap[ (lo + i) >> 8 ];
+				do {
+					n = Math.min( (((lo + n) | 0xff) + 1) - lo, len );
+				} while ( (handler == null) && (n < len) && (writeMap[ (lo + n) >> 8 ] == null) );
+			}
+			else {
+				n = len - done;
+				i = n;
+				handler = writeMap[ (lo + n - 1) >> 8 ];
+				do {
+					i = Math.max( ((lo + i - 1) & ~0xff) - lo, 0 );
+				} while ( (handler == null) && (i > 0) && (writeMap[ (lo + i - 1) >> 8 ] == null) );
+			}
+
+			if ( handler == null ) {
+				copyPages( lo + i, fromLo + i, n - i, step );
+				changed( lo + i, n - i );
+			}
+			else
+			if ( step > 0 ) {
+				for ( int j = i; j < n; j++ ) {
+					handler.pokeb( this, lo + j, peek( fromLo + j ) );
+				}
+			}
+			else {
+				for ( int j = n - 1; j >= i; j-- ) {
+					handler.pokeb( this, lo + j, peek( fromLo + j ) );
+				}
+			}
+			done += n - i;
+		}
+	}
+
+	/** Copy the n bytes from from up to dest, a piece within one 16K
+	 *  page of each at a time, starting from the end step goes from.
+	 */
+	private final void copyPages( int dest, int from, int n, int step ) {
+		while ( n > 0 ) {
+			int d, f, len;
+			if ( step > 0 ) {
+				len = Math.min( n, Math.min( 0x4000 - (dest & 0x3fff), 0x4000 - (from & 0x3fff) ) );
+				d = dest;
+				f = from;
+				dest += len;
+				from += len;
+			}
+			else {
+				len = Math.min( n, Math.min( ((dest + n - 1) & 0x3fff) + 1, ((from + n - 1) & 0x3fff) + 1 ) );
+				d = dest + n - len;
+				f = from + n - len;
+			}
+			byte src[] = pages[ f >> 14 ];
+			byte dst[] = pages[ d >> 14 ];
+			if ( (src == dst) && ((f >> 14) != (d >> 14)) ) {
+				// A bank paged in twice may overlap itself, as the Z80 would
+				for ( int i = 0; i < len; i++ ) {
+					int k = (step > 0) ? i : len - 1 - i;
+					dst[ (d + k) & 0x3fff ] = src[ (f + k) & 0x3fff ];
+				}
+			}
+			else {
+				System.arraycopy( src, f & 0x3fff, dst, d & 0x3fff, len );
+			}
+			n -= len;
+		}
+	}
+
+	/** Memory comes in 16K banks, ROM included */
+	public  static final int PAGE_SIZE = 16384;
+
+	/** All of the memory as banks, and which one pages[ p ] is. A 48K
+	 *  machine has four, in the order they are in the address space. A
+	 *  bank's array changes when a state is restored and when it is
+	 *  then first written, so it is looked up here every time.
+	 */
+	protected final byte banks[][];
+	private   final int  bankAt[] = { 0, 1, 2, 3 };
+
+	/** A bit per 256 bytes written through pokeb or changed, per page */
+	private final long written[] = new long[ 4 ];
+	/** What has been written since the last save or restore, by bank */
+	private int        dirtyBanks = 0;
+	private final long dirtyChunks[];
+	/** The banks which memory matched at the last save or restore */
+	private final byte savedPages[][];
+
+	/** The banks, a bit each, which are still the arrays of the save
+	 *  state they were restored from. Those are never written: the first
+	 *  write to one through the memory map copies it, see CopyOnWrite.
+	 */
+	private int         sharedBanks = 0;
+	/** A tap per 256 bytes of the memory map, and the 16K pages tapped */
+	private final Tap   copyOnWrite[] = new Tap[ 256 ];
+	private int         tappedPages = 0;
+
+	/** Copies a shared bank before the first write to it, then the bank
+	 *  is untapped and the write goes on to the copy. Writes which ROM
+	 *  drops copy nothing.
+	 */
+	private static final class CopyOnWrite extends Tap {
+		public void pokeb( SpectrumMachine machine, int addr, int newByte ) {
+			if ( machine.handlerAt( addr ) != ROM ) {
+				machine.writable( machine.bankAt[ addr >> 14 ] );
+			}
+			pass( machine, addr, newByte );
+		}
+	}
+
+	/** Page bank in at addr, a multiple of 16K, by pointing the Z80's
+	 *  page table at it. What the memory map does with writes there is
+	 *  up to the caller.
+	 */
+	protected final void pageIn( int bank, int addr ) {
+		int p = addr >> 14;
+		if ( bankAt[ p ] != bank ) {
+			foldWritten();
+			pages[ p ]  = banks[ bank ];
+			bankAt[ p ] = bank;
+			tapShared( p );
+		}
+	}
+
+	/** Tap the memory map of 16K page p if its bank is shared, untap it
+	 *  if not.
+	 */
+	private final void tapShared( int p ) {
+		boolean shared = (sharedBanks & (1 << bankAt[ p ])) != 0;
+		if ( shared != ((tappedPages & (1 << p)) != 0) ) {
+			for ( int page = p << 6; page < ((p + 1) << 6); page++ ) {
+				if ( shared ) {
+					if ( copyOnWrite[ page ] == null ) {
+						copyOnWrite[ page ] = new CopyOnWrite();
+					}
+					tap( page << 8, copyOnWrite[ page ] );
+				}
+				else {
+					untap( page << 8, copyOnWrite[ page ] );
+				}
+			}
+			tappedPages ^= 1 << p;
+		}
+	}
+
+	/** Make bank the array page, wherever it is paged in and as the
+	 *  screen, shared or not.
+	 */
+	private final void setBank( int bank, byte page[], boolean shared ) {
+		if ( screen == banks[ bank ] ) {
+			screen = page;
+		}
+		banks[ bank ] = page;
+		sharedBanks = shared ? (sharedBanks | (1 << bank)) : (sharedBanks & ~(1 << bank));
+		for ( int p = 0; p < 4; p++ ) {
+			if ( bankAt[ p ] == bank ) {
+				pages[ p ] = page;
+				tapShared( p );
+			}
+		}
+	}
+
+	/** Bank, to be written other than through pokeb, such as by loading
+	 *  it wholesale. A bank still shared with a save state is copied
+	 *  first. Say what was written with changed or changedBank.
+	 */
+	protected final byte[] writable( int bank ) {
+		if ( (sharedBanks & (1 << bank)) != 0 ) {
+			byte page[] = new byte[ PAGE_SIZE ];
+			System.arraycopy( banks[ bank ], 0, page, 0, PAGE_SIZE );
+			setBank( bank, page, false );
+		}
+		return banks[ bank ];
+	}
+
+	/** Note that len bytes from addr were changed other than through
+	 *  pokeb, such as by loading them wholesale.
+	 */
+	protected final void changed( int addr, int len ) {
+		for ( int chunk = addr >> 8; chunk < ((addr + len + 255) >> 8); chunk++ ) {
+			written[ chunk >> 6 ] |= 1L << chunk;
+		}
+	}
+
+	/** Note that all of bank was changed, paged in or not */
+	protected final void changedBank( int bank ) {
+		dirtyBanks |= 1 << bank;
+		dirtyChunks[ bank ] = -1L;
+	}
+
+	/** Move written into the dirty banks and chunks */
+	private final void foldWritten() {
+		for ( int p = 0; p < 4; p++ ) {
+			long w = written[ p ];
+			if ( w != 0 ) {
+				written[ p ] = 0;
+				dirtyBanks |= 1 << bankAt[ p ];
+				dirtyChunks[ bankAt[ p ] ] |= w;
+			}
+		}
+	}
+
+	/** Or into chunks a bit for every 256 bytes written since the last
+	 *  call, bit n of chunks[b] is offset n*256 in bank b.
+	 */
+	final void takeDirtyChunks( long chunks[] ) {
+		foldWritten();
+		for ( int b = 0; b < banks.length; b++ ) {
+			chunks[ b ] |= dirtyChunks[ b ];
+			dirtyChunks[ b ] = 0;
+		}
+	}
+
+	/** Capture the whole machine state. Banks which have not been written
+	 *  since the last save or restore are shared with that state rather
+	 *  than copied, so saving a machine that has run one frame costs at
+	 *  most a copy of the banks that frame wrote. The banks of a state
+	 *  are never written once it has been made. The clock is saved, events
+	 *  scheduled on the Z80 are not.
+	 */
+	public SpectrumState save() {
+		SpectrumState s = new SpectrumState( banks.length, registers() );
+
+		foldWritten();
+		for ( int b = 0; b < banks.length; b++ ) {
+			if ( ((dirtyBanks & (1 << b)) != 0) || (savedPages[ b ] == null) ) {
+				byte page[] = new byte[ PAGE_SIZE ];
+				System.arraycopy( banks[ b ], 0, page, 0, PAGE_SIZE );
+				savedPages[ b ] = page;
+			}
+			s.pages[ b ] = savedPages[ b ];
+		}
+		dirtyBanks = 0;
+
+		saveRegisters( s.regs, 0 );
+		return s;
+	}
+
+	/** Put the machine back into a state made by save, on this machine or
+	 *  another of the same model. The banks which differ from the ones
+	 *  memory already holds are not copied back but shared with the
+	 *  state, until the machine first writes to each of them.
+	 */
+	public void restore( SpectrumState s ) {
+		if ( (s.pages.length != banks.length) || (s.regs.length != registers()) ) {
+			throw new IllegalArgumentException( "Save state of another model" );
+		}
+
+		boolean refresh = false;
+		foldWritten();
+		for ( int b = 0; b < banks.length; b++ ) {
+			if ( ((dirtyBanks & (1 << b)) != 0) || (savedPages[ b ] != s.pages[ b ]) ) {
+				refresh |= (banks[ b ] == screen);
+				setBank( b, s.pages[ b ], true );
+				// Only for takeDirtyChunks, the bank matches savedPages again
+				dirtyChunks[ b ] = -1L;
+				savedPages[ b ] = s.pages[ b ];
+			}
+		}
+		dirtyBanks = 0;
+
+		restoreRegisters( s.regs, 0 );
+		if ( refresh ) {
+			refreshWholeScreen();
+		}
+	}
+
+	/** A new headless machine in the same state as this one. Saving
+	 *  copies the banks the parent wrote since its last save, the child
+	 *  is then only pointed at the state's banks and copies each one when
+	 *  it first writes to it, so many children share what none of them
+	 *  write. The child starts at the parent's clock with no events
+	 *  scheduled.
+	 */
+	public SpectrumMachine fork() {
+		SpectrumMachine child = new SpectrumMachine();
+		child.restore( save() );
+		return child;
+	}
+
+	/** Number of ints saveRegisters writes on a 48K machine */
+	static final int REGISTERS = 23;
+
+	/** Number of ints saveRegisters writes on this machine */
+	int registers() {
+		return REGISTERS;
+	}
+
+	/** Registers, interrupt state, the clock, border and keyboard into r
+	 *  from o, the keyboard last.
+	 */
+	void saveRegisters( int r[], int o ) {
+		r[o++] = AF(); r[o++] = BC(); r[o++] = DE(); r[o++] = HL();
+		r[o++] = IX(); r[o++] = IY(); r[o++] = SP(); r[o++] = PC();
+		r[o++] = _AF_; r[o++] = _BC_; r[o++] = _DE_; r[o++] = _HL_;
+		r[o++] = I(); r[o++] = R(); r[o++] = IM();
+		r[o++] = IFF1() ? 1 : 0;
+		r[o++] = IFF2() ? 1 : 0;
+		r[o++] = tstates;
+		r[o++] = (int) (interruptClock() >>> 32);
+		r[o++] = (int) interruptClock();
+		r[o++] = newBorder;
+		r[o++] = (_B_SPC << 24) | (_H_ENT << 16) | (_Y_P << 8) | _6_0;
+		r[o++] = (_1_5 << 24) | (_Q_T << 16) | (_A_G << 8) | _CAPS_V;
+	}
+
+	void restoreRegisters( int r[], int o ) {
+		AF( r[o++] ); BC( r[o++] ); DE( r[o++] ); HL( r[o++] );
+		IX( r[o++] ); IY( r[o++] ); SP( r[o++] ); PC( r[o++] );
+		_AF_ = r[o++]; _BC_ = r[o++]; _DE_ = r[o++]; _HL_ = r[o++];
+		I( r[o++] ); R( r[o++] ); IM( r[o++] );
+		IFF1( r[o++] != 0 );
+		IFF2( r[o++] != 0 );
+		tstates = r[o++];
+		long high = r[o++];
+		interruptClock( (high << 32) | (r[o++] & 0xffffffffL) );
+		newBorder = r[o++];
+
+		int keys = r[o++];
+		_B_SPC = (keys >>> 24); _H_ENT = (keys >> 16) & 0xff; _Y_P = (keys >> 8) & 0xff; _6_0 = keys & 0xff;
+		keys = r[o++];
+		_1_5   = (keys >>> 24); _Q_T   = (keys >> 16) & 0xff; _A_G = (keys >> 8) & 0xff; _CAPS_V = keys & 0xff;
+		keysChanged();
+	}
+
+	public void loadSnapshot( String name, InputStream is, int snapshotLength ) throws Exception {
+		// Linux  JDK doesn't always know the size of files
+		if ( snapshotLength < 0 ) {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			is = new BufferedInputStream( is, 4096 );
+
+			int byteOrMinus1;
+			int i;
+
+			for ( i = 0; (byteOrMinus1 = is.read()) != -1; i++ ) {
+				os.write( (byte) byteOrMinus1 );
+			}
+
+			is = new ByteArrayInputStream( os.toByteArray() ); 
+			snapshotLength = i;
+		}
+
+		// Crude check but it'll work (SNA is a fixed size)
+		if ( (snapshotLength == 49179) ) {
+			loadSNA( name, is );
+		}
+		else {
+			loadZ80( name, is, snapshotLength );
+		}
+
+		for ( int b = 0; b < banks.length; b++ ) {
+			changedBank( b );
+		}
+		refreshWholeScreen();
+		resetKeyboard();
+	}
+	
+	public void loadROM( String name, InputStream is ) throws Exception {
+		startProgress( "Loading " + name, 16384 );
+
+		readBytes( is, writable( bankAt[ 0 ] ), 0, 16384 );
+		changed( 0, 16384 );
+	}
+
+   	public void loadSNA( String name, InputStream is ) throws Exception {
+		startProgress( "Loading " + name, 27+49152 );
+
+		int        header[] = new int[27];
+
+		snapshotModel( false, 0 );
+		readBytes( is, header, 0, 27 );
+		readRAM( is );
+    
+		I( header[0] );
+
+		HL( header[1] | (header[2]<<8) );
+		DE( header[3] | (header[4]<<8) );
+		BC( header[5] | (header[6]<<8) );
+		AF( header[7] | (header[8]<<8) );
+
+		exx();
+		ex_af_af();
+
+		HL( header[9]  | (header[10]<<8) );
+		DE( header[11] | (header[12]<<8) );
+		BC( header[13] | (header[14]<<8) );
+
+		IY( header[15] | (header[16]<<8) );
+		IX( header[17] | (header[18]<<8) );
+
+		if ( (header[19] & 0x04)!= 0 ) {
+			IFF2( true );
+		}
+		else {
+			IFF2( false );
+		}
+
+		R( header[20] );
+
+		AF( header[21] | (header[22]<<8) );
+		SP( header[23] | (header[24]<<8) );
+
+		switch( header[25] ) {
+		case 0:
+			IM( IM0 );
+			break;
+		case 1:
+			IM( IM1 );
+			break;
+		default:
+			IM( IM2 );
+			break;
+		}
+
+		outb( 254, header[26], 0 ); // border
+     
+		/* Emulate RETN to start */
+		IFF1( IFF2() );
+		REFRESH( 2 );
+		poppc();
+
+		snapshotLoaded( name );
+	}
+
+	public void loadZ80( String name, InputStream is, int bytesLeft ) throws Exception {
+		startProgress( "Loading " + name, bytesLeft );
+
+		int        header[] = new int[30];
+		boolean    compressed = false;
+
+		bytesLeft -= readBytes( is, header, 0, 30 );
+
+		A( header[0] );
+		F( header[1] );
+     
+		C( header[2] );
+		B( header[3] );
+		L( header[4] );
+		H( header[5] );
+
+		PC( header[6] | (header[7]<<8) );
+		SP( header[8] | (header[9]<<8) );
+
+		I( header[10] );
+		R( header[11] );
+
+		int tbyte = header[12];
+		if ( tbyte == 255 ) {
+			tbyte = 1;
+		}
+
+		outb( 254, ((tbyte >> 1) & 0x07), 0 ); // border
+
+		if ( (tbyte & 0x01) != 0 ) {
+			R( R() | 0x80 );
+		}
+		compressed = ((tbyte & 0x20) != 0);
+     
+		E( header[13] );
+		D( header[14] );
+
+		ex_af_af();
+		exx();
+
+		C( header[15] );
+		B( header[16] );
+		E( header[17] );
+		D( header[18] );
+		L( header[19] );
+		H( header[20] );
+
+		A( header[21] );
+		F( header[22] );
+
+		ex_af_af();
+		exx();
+
+		IY( header[23] | (header[24]<<8) );
+		IX( header[25] | (header[26]<<8) );
+
+		IFF1( header[27] != 0 );
+		IFF2( header[28] != 0 );
+
+		switch ( header[29] & 0x03 ) {
+		case 0:
+			IM( IM0 );
+			break;
+		case 1:
+			IM( IM1 );
+			break;
+		default:
+			IM( IM2 );
+			break;
+		}
+
+		if ( PC() == 0 ) {
+			loadZ80_extended( is, bytesLeft );
+
+			snapshotLoaded( name );
+			return;
+		}
+
+		/* Old format Z80 snapshot */
+		snapshotModel( false, 0 );
+    
+		if ( compressed ) {
+			int data[] = new int[ bytesLeft ];
+			int addr   = 16384;
+
+			int size = readBytes( is, data, 0, bytesLeft );
+			int i    = 0;
+
+			while ( (addr < 65536) && (i < size) ) {
+				tbyte = data[i++];
+				if ( tbyte != 0xed ) {
+					pokeb( addr, tbyte );
+					addr++;
+				}
+				else {
+					tbyte = data[i++];
+					if ( tbyte != 0xed ) {
+						pokeb( addr, 0xed );
+						i--;
+						addr++;
+					}
+					else {
+						int        count;
+						count = data[i++];
+						tbyte = data[i++];
+						while ( (count--) != 0 ) {
+							pokeb( addr, tbyte );
+							addr++;
+						}
+					}
+				}
+			}
+		}
+		else {
+			readRAM( is );
+		}
+
+		snapshotLoaded( name );
+	}
+
+	private void loadZ80_extended( InputStream is, int bytesLeft ) throws Exception {
+		int header[] = new int[2];
+		bytesLeft -= readBytes( is, header, 0, header.length );
+
+		int type = header[0] | (header[1] << 8);
+
+		switch( type ) {
+		case 23: /* V2.01 */
+			loadZ80_v201( is, bytesLeft );
+			break;
+		case 54: /* V3.00 */
+			loadZ80_v300( is, bytesLeft );
+			break;
+		case 58: /* V3.01 */
+			loadZ80_v301( is, bytesLeft );
+			break;
+		default:
+			throw new Exception( "Z80 (extended): unsupported type " + type );
+		}
+	}
+
+	private void loadZ80_v201( InputStream is, int bytesLeft ) throws Exception {
+		int header[] = new int[23];
+		bytesLeft -= readBytes( is, header, 0, header.length );
+
+		PC( header[0] | (header[1]<<8) );
+
+		/* 0 - 48K
+		 * 1 - 48K + IF1
+		 * 2 - SamRam
+		 * 3 - 128K
+		 * 4 - 128K + IF1
+		 */
+		int type = header[2];
+	
+		if ( (type > 4) || (type == 2) ) {
+			throw new Exception( "Z80 (v201): unsupported type " + type );
+		}
+		loadZ80_pages( is, bytesLeft, type >= 3, header );
+	}
+
+	private void loadZ80_v300( InputStream is, int bytesLeft ) throws Exception {
+		int        header[] = new int[54];
+		bytesLeft -= readBytes( is, header, 0, header.length );
+
+		PC( header[0] | (header[1]<<8) );
+
+		/* 0 - 48K
+		 * 1 - 48K + IF1
+		 * 2 - 48K + MGT
+		 * 3 - SamRam
+		 * 4 - 128K
+		 * 5 - 128K + IF1
+		 * 6 - 128K + MGT
+		 */
+		int type = header[2];
+	
+		if ( type > 6 ) {
+			throw new Exception( "Z80 (v300): unsupported type " + type );
+		}
+		loadZ80_pages( is, bytesLeft, type >= 4, header );
+	}
+
+	private void loadZ80_v301( InputStream is, int bytesLeft ) throws Exception {
+		int        header[] = new int[58];
+		bytesLeft -= readBytes( is, header, 0, header.length );
+
+		PC( header[0] | (header[1]<<8) );
+
+		/* 0 - 48K
+		 * 1 - 48K + IF1
+		 * 2 - 48K + MGT
+		 * 3 - SamRam
+		 * 4 - 128K
+		 * 5 - 128K + IF1
+		 * 6 - 128K + MGT
+		 * 7 - +3
+		 */
+		int type = header[2];
+	
+		if ( type > 7 ) {
+			throw new Exception( "Z80 (v301): unsupported type " + type );
+		}
+		loadZ80_pages( is, bytesLeft, type >= 4, header );
+	}
+
+	/** The 16K pages after an extended header, three for a 48K snapshot
+	 *  and eight for a 128K one, which has the value last written to port
+	 *  7FFD and the sound chip registers in the header.
+	 */
+	private void loadZ80_pages( InputStream is, int bytesLeft, boolean is128, int header[] ) throws Exception {
+		snapshotModel( is128, header[3] );
+		if ( is128 ) {
+			int registers[] = new int[ 16 ];
+			System.arraycopy( header, 7, registers, 0, 16 );
+			snapshotAY( header[6], registers );
+		}
+
+		int data[] = new int[ bytesLeft ];
+		readBytes( is, data, 0, bytesLeft );
+
+		byte page[] = new byte[ 16384 ];
+		for ( int offset = 0, j = 0; j < (is128 ? 8 : 3); j++ ) {
+			int number = data[ offset + 2 ];
+			offset = loadZ80_page( data, offset, page );
+			loadZ80_page( number, page );
+		}
+	}
+
+	/** Set the machine up for a 48K or 128K snapshot, before its memory */
+	protected void snapshotModel( boolean is128, int port7ffd ) throws Exception {
+		if ( is128 ) {
+			throw new Exception( "Z80: 128K snapshot, needs a 128K machine" );
+		}
+	}
+
+	/** The AY registers of a 128K snapshot and the one last selected */
+	protected void snapshotAY( int selected, int registers[] ) {
+	}
+
+	/** Put a 16K page of a .z80 snapshot in place, numbered as in the file */
+	protected void loadZ80_page( int number, byte page[] ) throws Exception {
+		int addr;
+		switch( number ) {
+		case 4:
+			addr = 32768;
+			break;
+		case 5:
+			addr = 49152;
+			break;
+		case 8:
+			addr = 16384;
+			break;
+		default:
+			throw new Exception( "Z80 (page): out of range " + number );
+		}
+		System.arraycopy( page, 0, writable( bankAt[ addr >> 14 ] ), 0, 16384 );
+	}
+
+	/** Read the 48K of RAM from 4000 on, as a snapshot stores it */
+	private void readRAM( InputStream is ) throws Exception {
+		byte ram[] = new byte[ 49152 ];
+		readBytes( is, ram, 0, ram.length );
+		for ( int p = 1; p < 4; p++ ) {
+			System.arraycopy( ram, (p - 1) * PAGE_SIZE, writable( bankAt[ p ] ), 0, PAGE_SIZE );
+		}
+	}
+
+	/** Uncompress the page at i in data into page, returns where the next starts */
+	private int loadZ80_page( int data[], int i, byte page[] ) throws Exception {
+		int blocklen;
+
+		blocklen  = data[i++];
+		blocklen |= (data[i++]) << 8;
+		i++;
+
+		int addr = 0;
+
+		// 0xffff for a page stored without compression
+		if ( blocklen == 0xffff ) {
+			for ( ; addr < 16384; addr++ ) {
+				page[ addr ] = (byte) data[i++];
+			}
+			return i;
+		}
+
+		int        k = 0;
+		while ( (k < blocklen) && (addr < 16384) ) {
+			int        tbyte = data[i++]; k++;
+			if ( tbyte != 0xed ) {
+				page[ addr++ ] = (byte) tbyte;
+			}
+			else {
+				tbyte = data[i++]; k++;
+				if ( tbyte != 0xed ) {
+					page[ addr++ ] = (byte) 0xed;
+					i--; k--;
+				}
+				else {
+					int        count;
+					count = data[i++]; k++;
+					tbyte = data[i++]; k++;
+					while ( (count-- > 0) && (addr < 16384) ) {
+						page[ addr++ ] = (byte) tbyte;
+					}
+				}
+			}
+		}
+
+		if ( (addr != 16384) || (k != blocklen) ) {
+			throw new Exception( "Z80 (page): overrun" );
+		}
+		
+		return i;
+	}
+
+	/** Loading progress is only shown by a user interface. */
+	protected void startProgress( String text, int nBytes ) {
+	}
+
+	protected void updateProgress( int bytesRead ) {
+	}
+
+	protected void stopProgress() {
+	}
+
+	/** Called with the name of each snapshot loaded. */
+	protected void snapshotLoaded( String name ) {
+	}
+
+
+	private int readBytes( InputStream is, int a[], int off, int n ) throws Exception {
+		byte buff[] = new byte[ n ];
+		readBytes( is, buff, 0, n );
+
+		for ( int i = 0; i < n; i++ ) {
+			a[ i+off ] = buff[i] & 0xff;
+		}
+
+		return n;
+	}
+
+	/** Read straight into a byte array, such as a page */
+	private int readBytes( InputStream is, byte a[], int off, int n ) throws Exception {
+		try {
+			BufferedInputStream bis = new BufferedInputStream( is, n );
+
+			int toRead = n;
+			while ( toRead > 0 ) {
+				int	nRead = bis.read( a, off+n-toRead, toRead );
+				toRead -= nRead;
+				updateProgress( nRead );
+			}
+
+			return n;
+		}
+		catch ( Exception e ) {
+			System.err.println( e );
+			e.printStackTrace();
+			stopProgress();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * @(#)SpectrumSession.java
+ */
+import java.io.*;
+import java.net.*;
+
+/**
+ * <p>The SpectrumSession class runs one headless SpectrumMachine on a thread
+ * of its own, by default a virtual thread. Everything a session waits for is
+ * a blocking point which gives the carrier thread back: the park which paces
+ * it to the machine's frame rate, a pause (waiting on the machine's lock condition)
+ * and reading a snapshot from a URL. Tens of thousands of mostly idle
+ * sessions therefore need no more platform threads than there are cores.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java SpectrumSession [-sessions n] [-active n] [-seconds n] rom [snapshot]
+ * </pre>
+ * starts the sessions with all but the active ones paused, and prints how
+ * many frames ran against the 50.08 a second the active ones should manage,
+ * and how late their frames started on average.</p>
+ *
+ * @see SpectrumMachine
+ * @see SpectrumFarm
+ */
+
+public class SpectrumSession implements Runnable {
+	public  final SpectrumMachine machine;
+	public  boolean               paced  = true;
+	public  final FramePacer      pacer;
+	public  volatile long         frames = 0;
+
+	private volatile Thread       thread  = null;
+
+	public SpectrumSession( SpectrumMachine _machine ) {
+		machine = _machine;
+		pacer   = new FramePacer( machine.framesPerSecond() );
+		// Spinning would hold on to the carrier thread
+		pacer.spinNs = 0;
+	}
+
+	/** Start running on a new virtual thread */
+	public void start() {
+		start( Thread.ofVirtual().name( "SpectrumSession" ) );
+	}
+
+	/** Start running on a thread from the given builder */
+	public void start( Thread.Builder builder ) {
+		if ( thread == null ) {
+			thread = builder.unstarted( this );
+			thread.start();
+		}
+	}
+
+	/** Stop the session, run() returns at the next interrupt */
+	public void stop() {
+		if ( thread != null ) {
+			thread = null;
+
+			machine.resume();
+		}
+	}
+
+	public void pauseOrResume() {
+		machine.pauseOrResume();
+	}
+
+	/** Load a snapshot from url, on the session's own thread at the next
+	 *  interrupt, or straight away if the session is paused.
+	 */
+	public void load( String url ) {
+		machine.invokeAtInterrupt( () -> loadFrom( url ) );
+	}
+
+	public void run() {
+		while ( thread == Thread.currentThread() ) {
+			machine.runFrames( 1 );
+			frames++;
+
+			if ( paced && !machine.fastForward ) {
+				pacer.pace();
+			}
+		}
+	}
+
+	private void loadFrom( String url ) {
+		try {
+			URLConnection snap = new URL( url ).openConnection();
+
+			try ( InputStream input = snap.getInputStream() ) {
+				machine.loadSnapshot( url, input, snap.getContentLength() );
+			}
+		}
+		catch ( Exception e ) {
+			machine.showMessage( e.toString() );
+		}
+	}
+
+
+	public static void main( String args[] ) throws Exception {
+		int nSessions = 1000;
+		int nActive   = 10;
+		int seconds   = 5;
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-sessions" ) ) {
+				nSessions = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-active" ) ) {
+				nActive = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-seconds" ) ) {
+				seconds = Integer.parseInt( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+		if ( i >= args.length ) {
+			throw new Exception( "Usage: SpectrumSession [-sessions n] [-active n] [-seconds n] rom [snapshot]" );
+		}
+		String romFile  = args[ i ];
+		String snapFile = (i + 1 < args.length) ? args[ i + 1 ] : null;
+
+		byte rom[] = new byte[ 16384 ];
+		try ( DataInputStream is = new DataInputStream( new FileInputStream( romFile ) ) ) {
+			is.readFully( rom );
+		}
+
+		SpectrumSession sessions[] = new SpectrumSession[ nSessions ];
+		for ( int s = 0; s < nSessions; s++ ) {
+			SpectrumMachine spectrum = new SpectrumMachine();
+			spectrum.loadROM( romFile, new ByteArrayInputStream( rom ) );
+			sessions[ s ] = new SpectrumSession( spectrum );
+			if ( snapFile != null ) {
+				sessions[ s ].load( new File( snapFile ).toURI().toString() );
+			}
+			if ( s >= nActive ) {
+				sessions[ s ].pauseOrResume();
+			}
+			sessions[ s ].start();
+		}
+
+		Thread.sleep( seconds * 1000L );
+
+		long frames = 0, jitter = 0;
+		double expected = 0;
+		for ( int s = 0; s < nSessions; s++ ) {
+			frames += sessions[ s ].frames;
+			if ( s < nActive ) {
+				jitter   += sessions[ s ].pacer.jitterNs();
+				expected += sessions[ s ].machine.framesPerSecond() * seconds;
+			}
+			sessions[ s ].stop();
+		}
+		System.out.println( nSessions + " sessions, " + nActive + " active, " + seconds + " seconds: " +
+			frames + " frames, " + Math.round( expected ) +
+			" expected for the active ones, " + Thread.activeCount() + " platform threads, " +
+			(jitter / Math.max( nActive, 1 ) / 1000) + " us mean jitter" );
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * @(#)SpectrumState.java
+ */
+
+/**
+ * <p>The SpectrumState class holds an in-memory save state of a
+ * SpectrumMachine: the Z80 registers, the interrupt state, the border, the
+ * keyboard matrix and every 16K bank of memory, four on a 48K machine. A
+ * 128K one adds its eight RAM banks and two ROMs, the last value written to
+ * port 7FFD and the AY registers.</p>
+ *
+ * <p>The banks are shared between states and the machines restored from
+ * them, and are never written after SpectrumMachine.save has made them, so
+ * a state costs little more than the banks written since the one before
+ * it.</p>
+ *
+ * @see SpectrumMachine#save
+ * @see SpectrumMachine#restore
+ */
+
+public class SpectrumState {
+	/** As written by SpectrumMachine.saveRegisters */
+	final int  regs[];
+	/** Memory, PAGE_SIZE bytes per bank */
+	final byte pages[][];
+
+	SpectrumState( int nBanks, int nRegisters ) {
+		regs  = new int[ nRegisters ];
+		pages = new byte[ nBanks ][];
+	}
+
+	public int PC() {
+		return regs[ 7 ];
+	}
+
+	/** True if bank p is the same array in both states */
+	public boolean shares( SpectrumState s, int p ) {
+		return pages[ p ] == s.pages[ p ];
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * @(#)TraceDump.java
+ */
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>The TraceDump class reads a trace file written by Tracer and prints its
+ * records oldest first, one line each with the T-state, the address, the
+ * instruction bytes and mnemonic and the registers before it ran:</p>
+ *
+ * <pre>
+ *   34936914 7A77 77          LD (HL),A        AF=0044 BC=0B10 DE=5A20 HL=4D3F IX=0000 IY=5C3A SP=FF4A
+ * </pre>
+ *
+ * <p>Two traces of the same program from different engines can be compared
+ * with diff on the output of each, the first differing line being where they
+ * part. Note that an LDIR run up to the interrupt in bulk, or a skipped idle
+ * loop, is one record.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java TraceDump [-last n] [-alternates] file
+ * </pre>
+ * </p>
+ *
+ * @see Tracer
+ * @see Disassembler
+ */
+
+public class TraceDump {
+	private final MappedByteBuffer buf;
+	private final int              capacity;
+	private final long             count;
+
+	public TraceDump( String file ) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try {
+			buf = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+		}
+		finally {
+			raf.close();
+		}
+		buf.order( ByteOrder.LITTLE_ENDIAN );
+
+		if ( (buf.getInt( 0 ) != Tracer.MAGIC) || (buf.getInt( 4 ) != Tracer.RECORD) ) {
+			throw new IOException( file + " is not a trace file" );
+		}
+		capacity = buf.getInt( 8 );
+		count    = buf.getLong( 16 );
+	}
+
+	/** Records in the file, the last capacity of those written */
+	public int records() {
+		return (int) Math.min( count, capacity );
+	}
+
+	/** Offset of record n, 0 being the oldest still in the file */
+	private int offset( int n ) {
+		long first = count - records();
+		return Tracer.HEADER + (int) ((first + n) % capacity) * Tracer.RECORD;
+	}
+
+	public void print( PrintWriter out, int from, boolean alternates ) {
+		Disassembler dis  = new Disassembler();
+		byte         code[] = new byte[ 4 ];
+
+		for ( int n = from; n < records(); n++ ) {
+			int at = offset( n );
+			int pc = buf.getShort( at + 8 ) & 0xffff;
+			for ( int i = 0; i < 4; i++ ) {
+				code[ i ] = buf.get( at + 10 + i );
+			}
+			String mnemonic = dis.disassemble( code, 0, pc );
+
+			StringBuffer line = new StringBuffer();
+			line.append( pad( String.valueOf( buf.getLong( at ) ), 10 ) ).append( ' ' );
+			line.append( hex( pc, 4 ) ).append( ' ' );
+			for ( int i = 0; i < 4; i++ ) {
+				line.append( (i < dis.length()) ? hex( code[ i ] & 0xff, 2 ) : "  " ).append( ' ' );
+			}
+			line.append( mnemonic );
+			for ( int i = mnemonic.length(); i < 17; i++ ) {
+				line.append( ' ' );
+			}
+
+			String names[] = { "AF", "BC", "DE", "HL", "IX", "IY", "SP" };
+			for ( int i = 0; i < names.length; i++ ) {
+				line.append( names[ i ] ).append( '=' ).append( hex( buf.getShort( at + 14 + i*2 ) & 0xffff, 4 ) ).append( ' ' );
+			}
+			if ( alternates ) {
+				String alt[] = { "AF'", "BC'", "DE'", "HL'" };
+				for ( int i = 0; i < alt.length; i++ ) {
+					line.append( alt[ i ] ).append( '=' ).append( hex( buf.getShort( at + 28 + i*2 ) & 0xffff, 4 ) ).append( ' ' );
+				}
+				int state = buf.get( at + 38 );
+				line.append( "I=" ).append( hex( buf.get( at + 36 ) & 0xff, 2 ) );
+				line.append( " R=" ).append( hex( buf.get( at + 37 ) & 0xff, 2 ) );
+				line.append( " IFF=" ).append( state & 3 );
+				line.append( " IM=" ).append( (state >> 2) & 3 );
+			}
+			out.println( line.toString().trim() );
+		}
+		out.flush();
+	}
+
+	private static String hex( int n, int digits ) {
+		String s = Integer.toHexString( n ).toUpperCase();
+		while ( s.length() < digits ) {
+			s = "0" + s;
+		}
+		return s;
+	}
+
+	private static String pad( String s, int width ) {
+		while ( s.length() < width ) {
+			s = " " + s;
+		}
+		return s;
+	}
+
+
+	public static void main( String args[] ) throws Exception {
+		int     last       = -1;
+		boolean alternates = false;
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-last" ) ) {
+				last = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-alternates" ) ) {
+				alternates = true;
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+		if ( i >= args.length ) {
+			throw new Exception( "Usage: TraceDump [-last n] [-alternates] file" );
+		}
+
+		TraceDump dump = new TraceDump( args[ i ] );
+		int from = (last < 0) ? 0 : Math.max( dump.records() - last, 0 );
+		dump.print( new PrintWriter( new BufferedWriter( new OutputStreamWriter( System.out ) ) ), from, alternates );
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * @(#)Tracer.java
+ */
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>The Tracer class records every instruction the Z80 runs into a memory
+ * mapped file, as fixed size binary records in a ring which keeps the last
+ * capacity of them. Nothing is formatted while running: a record is a few
+ * stores into the mapping and the operating system writes the pages out in
+ * its own time, so tracing costs tens of nanoseconds an instruction rather
+ * than the microseconds of a text log. TraceDump reads the file back and
+ * disassembles it.</p>
+ *
+ * <p>The Z80 only traces with -Djasper.trace=true and a tracer set, the file
+ * is little endian and laid out as:
+ * <pre>
+ *   header   0  int   MAGIC
+ *            4  int   RECORD, the record size
+ *            8  int   capacity in records
+ *           16  long  records written, the ring wraps at capacity
+ *   record   0  long  T-state, counted from the first frame traced
+ *            8  short PC
+ *           10  byte  the four bytes at PC
+ *           14  short AF, BC, DE, HL, IX, IY, SP
+ *           28  short AF', BC', DE', HL'
+ *           36  byte  I, R, IFF1 | IFF2 &lt;&lt; 1 | IM &lt;&lt; 2, 0
+ * </pre>
+ * with the registers as they were before the instruction ran.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -Djasper.trace=true Tracer [-frames n] [-records n] file rom [snapshot]
+ * </pre>
+ * runs the snapshot, or the ROM on its own, headless into the trace file.</p>
+ *
+ * @see TraceDump
+ * @see Z80#tracer
+ */
+
+public class Tracer {
+	public static final int MAGIC  = 0x4352544a;	// "JTRC"
+	public static final int HEADER = 64;
+	public static final int RECORD = 40;
+
+	private final MappedByteBuffer buf;
+	private final int              capacity;
+	private final int              end;
+	private int                    at = HEADER;
+	private long                   count = 0;
+
+	/** The Z80 clock at the first record */
+	private long                   start = -1;
+
+	public Tracer( String file, int _capacity ) throws IOException {
+		capacity = _capacity;
+		if ( (capacity <= 0) || (capacity > (Integer.MAX_VALUE - HEADER) / RECORD) ) {
+			throw new IOException( "Trace capacity " + capacity + " out of range" );
+		}
+		end = HEADER + capacity * RECORD;
+
+		RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try {
+			raf.setLength( end );
+			buf = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, end );
+		}
+		finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+		buf.order( ByteOrder.LITTLE_ENDIAN );
+
+		buf.putInt( 0, MAGIC );
+		buf.putInt( 4, RECORD );
+		buf.putInt( 8, capacity );
+		buf.putLong( 16, 0 );
+	}
+
+	/** Record the instruction the Z80 is about to run, at tstates into the frame */
+	void record( Z80 z80, int tstates ) {
+		long now = z80.clockAt( tstates );
+		if ( start < 0 ) {
+			start = now;
+		}
+
+		int  pc    = z80._PC;
+		int  bytes = z80.peek( pc ) | (z80.peek( pc + 1 ) << 8) |
+			(z80.peek( pc + 2 ) << 16) | (z80.peek( pc + 3 ) << 24);
+
+		MappedByteBuffer b = buf;
+		int i = at;
+		b.putLong( i, now - start );
+		b.putShort( i + 8, (short) pc );
+		b.putInt( i + 10, bytes );
+		b.putShort( i + 14, (short) z80.AF() );
+		b.putShort( i + 16, (short) z80.BC() );
+		b.putShort( i + 18, (short) z80._DE );
+		b.putShort( i + 20, (short) z80._HL );
+		b.putShort( i + 22, (short) z80._IX );
+		b.putShort( i + 24, (short) z80._IY );
+		b.putShort( i + 26, (short) z80._SP );
+		b.putShort( i + 28, (short) z80._AF_ );
+		b.putShort( i + 30, (short) z80._BC_ );
+		b.putShort( i + 32, (short) z80._DE_ );
+		b.putShort( i + 34, (short) z80._HL_ );
+		b.putInt( i + 36, z80._I | (z80.R() << 8) |
+			((z80._IFF1 ? 1 : 0) << 16) | ((z80._IFF2 ? 2 : 0) << 16) | (z80._IM << 18) );
+
+		at = ((i += RECORD) == end) ? HEADER : i;
+		b.putLong( 16, ++count );
+	}
+
+	/** Records written, of which the last capacity are in the file */
+	public long records() {
+		return count;
+	}
+
+	/** Write the mapping out to the file */
+	public void flush() {
+		buf.force();
+	}
+
+
+	public static void main( String args[] ) throws Exception {
+		int frames   = 500;
+		int capacity = 1 << 20;
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-records" ) ) {
+				capacity = Integer.parseInt( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+		if ( i + 1 >= args.length ) {
+			throw new Exception( "Usage: Tracer [-frames n] [-records n] file rom [snapshot]" );
+		}
+		if ( !Z80.TRACE ) {
+			throw new Exception( "Run with -Djasper.trace=true" );
+		}
+		String traceFile = args[ i ];
+		String romFile   = args[ i + 1 ];
+		String snapFile  = (i + 2 < args.length) ? args[ i + 2 ] : null;
+
+		SpectrumMachine spectrum = new SpectrumMachine();
+		try ( InputStream is = new FileInputStream( romFile ) ) {
+			spectrum.loadROM( romFile, is );
+		}
+		if ( snapFile != null ) {
+			File snap = new File( snapFile );
+			try ( InputStream is = new FileInputStream( snap ) ) {
+				spectrum.loadSnapshot( snapFile, is, (int) snap.length() );
+			}
+		}
+
+		Tracer tracer = new Tracer( traceFile, capacity );
+		spectrum.tracer = tracer;
+
+		long start = System.nanoTime();
+		spectrum.runFrames( frames );
+		long ns = System.nanoTime() - start;
+		tracer.flush();
+
+		System.out.println( tracer.records() + " records in " + (ns / 1000000) + " ms, " +
+			Math.round( tracer.records() * 1000.0 / ns ) + " million a second" );
+	}
+}
@@ -1,6 +1,9 @@
 /*
  * @(#)Z80.java 1.1 27/04/97 Adam Davidson & Andrew Pollard
  */
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 
 /**
  * <p>The Z80 class emulates the Zilog Z80 microprocessor.</p>
@@ -15,10 +18,147 @@
 public class Z80 extends Object {
 
 	public Z80( double clockFrequencyInMHz ) {
-		tstatesPerInterrupt = (int) ((clockFrequencyInMHz * 1e6) / 50);
+		this( clockFrequencyInMHz, (int) ((clockFrequencyInMHz * 1e6) / 50) );
+	}
+
+	/** A Z80 interrupted every tstatesPerFrame T-states */
+	public Z80( double clockFrequencyInMHz, int tstatesPerFrame ) {
+		clockFrequency = clockFrequencyInMHz * 1e6;
+		tstatesPerInterrupt = tstatesPerFrame;
+		tstates = -tstatesPerInterrupt;
+		interruptClock = tstatesPerInterrupt;
 	}
 
 	protected int tstatesPerInterrupt = 0;
+	private final double clockFrequency;
+
+	/** Interrupts a second at full speed */
+	public final double framesPerSecond() {
+		return clockFrequency / tstatesPerInterrupt;
+	}
+
+	/** A boolean system property, false where properties can't be read */
+	static boolean getBoolean( String name ) {
+		try {
+			return Boolean.getBoolean( name );
+		}
+		catch ( SecurityException e ) {
+			return false;
+		}
+	}
+
+	/** T-states relative to the next interrupt, negative until it is due */
+	protected int tstates = 0;
+
+	/** The 64-bit clock at the next interrupt, T-states since power on */
+	private long interruptClock = 0;
+
+	/** T-states since power on, restoring a save state puts it back to
+	 *  where it was when the state was saved.
+	 */
+	public final long clock() {
+		return interruptClock + tstates;
+	}
+
+	/** The clock at the next interrupt, for save states */
+	final long interruptClock() {
+		return interruptClock;
+	}
+
+	/** Set the clock at the next interrupt, as tstates is set with it.
+	 *  Events already scheduled keep their clock times.
+	 */
+	final void interruptClock( long clock ) {
+		interruptClock = clock;
+	}
+
+	/** The clock at a T-state counter value within the current frame,
+	 *  such as the one outb is given, clock() is only up to date between
+	 *  instructions.
+	 */
+	public final long clockAt( int local_tstates ) {
+		return interruptClock + local_tstates;
+	}
+
+	/** Timed events, see schedule */
+	private final Scheduler scheduler = new Scheduler();
+
+	/** Fire event when clock() reaches at, or as soon as possible if that
+	 *  is already past. Events scheduled between runs, from another event
+	 *  or from a device's outb or inb fire on time: the deadline is lowered
+	 *  here and the IN or OUT hands it to the loop, see RESCHEDULED. One
+	 *  scheduled from a page handler is only seen at the deadline the loop
+	 *  already had or after the next IN or OUT, whichever comes first.
+	 *  Pending events are not part of a save state: restoring one, or
+	 *  rewinding, moves the clock but leaves them at their clock times.
+	 */
+	public final void schedule( Scheduler.Event event, long at ) {
+		scheduler.add( event, at );
+
+		long d = at - interruptClock;
+		if ( d < runLimit ) {
+			runLimit = (int) Math.max( d, -(1 << 30) );
+			rescheduled = true;
+		}
+	}
+
+	/** Drop any pending firing of event */
+	public final boolean cancel( Scheduler.Event event ) {
+		return scheduler.remove( event );
+	}
+
+	/** Where the fetch/execute loop next has to stop and look: the
+	 *  earliest of the interrupt, end and the next event, relative to the
+	 *  interrupt. The loop keeps it in a local, reading a field before
+	 *  every instruction instead costs exolon over 10%, and only takes up
+	 *  runLimit again when an IN or OUT hands it over.
+	 */
+	private final int nextDeadline( int end ) {
+		long at = scheduler.next() - interruptClock;
+		int  d  = Math.min( end, 0 );
+		return (at < d) ? (int) Math.max( at, -(1 << 30) ) : d;
+	}
+
+	/** Take the interrupt and fire the events which are due, in order of
+	 *  their T-state, returns the T-state counter after them. Taking the
+	 *  interrupt moves the counter back by a frame.
+	 */
+	private final int dispatch( int local_tstates, boolean profile ) {
+		while ( true ) {
+			long at = scheduler.next();
+			if ( (local_tstates >= 0) && (interruptClock <= at) ) {
+				// The handler may save or restore the registers, counter included
+				tstates = local_tstates;
+				if ( PROFILE && profile ) {
+					int sp = _SP, t = interrupt();
+					profiler.interrupt( this, sp, t );
+					local_tstates = tstates - (tstatesPerInterrupt - t);
+				}
+				else {
+					int t = interrupt();
+					local_tstates = tstates - (tstatesPerInterrupt - t);
+				}
+				interruptClock += tstatesPerInterrupt;
+				runEnd -= tstatesPerInterrupt;
+				if ( IDLE_SKIP ) {
+					idleStart = -1;
+				}
+			}
+			else
+			if ( at <= interruptClock + local_tstates ) {
+				tstates = local_tstates;
+				scheduler.poll().fire( this, at );
+				local_tstates = tstates;
+				if ( IDLE_SKIP ) {
+					// The event may have written to a loop being watched
+					idleStart = -1;
+				}
+			}
+			else {
+				return local_tstates;
+			}
+		}
+	}
 
 	public static final int IM0 = 0;
 	public static final int IM1 = 1;
@@ -36,7 +176,10 @@ public class Z80 extends Object {
 	private static final int PF = F_PV;
 	private static final int p_ = 0;
 
-	private static final boolean parity[] = new boolean[256];
+	/** Flags for an 8 bit result: S Z, S Z 5 3 and S Z 5 3 P */
+	private static final int SZ[]    = new int[256];
+	private static final int SZ53[]  = new int[256];
+	private static final int SZ53P[] = new int[256];
 	static {
 		for ( int i = 0; i < 256; i++ ) {
 			boolean	p = true;
@@ -45,15 +188,34 @@ public class Z80 extends Object {
 					p = !p;
 				}
 			}
-			parity[ i ] = p;
+			SZ[ i ]    = (i & F_S) | ((i == 0) ? F_Z : 0);
+			SZ53[ i ]  = SZ[ i ] | (i & (F_5 | F_3));
+			SZ53P[ i ] = SZ53[ i ] | (p ? F_PV : 0);
 		}
 	}
 
 
 	/** Main registers */
 	protected int        _A = 0, _HL = 0, _B = 0, _C = 0, _DE = 0;
-	protected boolean    fS = false, fZ  = false, f5 = false, fH = false;
-	protected boolean    f3 = false, fPV = false, fN = false, fC = false;
+
+	/** Flags, packed as in the F register */
+	protected int        _F = 0;
+
+	/** With -Djasper.lazyFlags=true the ALU operations only note their
+	 *  operands and result, F is worked out when something reads it.
+	 */
+	public static final boolean LAZY_FLAGS = getBoolean( "jasper.lazyFlags" );
+
+	/** Pending lazy flags: the operation and what flagsOf needs */
+	private int          lazyOp = 0, lazyA = 0, lazyB = 0, lazyR = 0;
+
+	private static final int L_ADD = 1;
+	private static final int L_SUB = 2;
+	private static final int L_CP  = 3;
+	private static final int L_AND = 4;
+	private static final int L_OR  = 5;
+	private static final int L_INC = 6;
+	private static final int L_DEC = 7;
 
 	/** Alternate registers */
 	protected int        _AF_ = 0, _HL_ = 0, _BC_ = 0, _DE_ = 0;
@@ -71,8 +233,15 @@ public class Z80 extends Object {
 	protected boolean    _IFF1 = true, _IFF2 = true;
 	protected int        _IM = 2;
 
-	/** Memory */ 
-	public final int  mem[] = new int[ 65536 ];
+	/** Memory as four 16K pages, the one at addr is pages[ addr >> 14 ].
+	 *  Every read goes through this table, so a memory system can page by
+	 *  pointing an entry at another array.
+	 */
+	protected final byte pages[][] = new byte[ 4 ][ 16384 ];
+
+	/** Little-endian 16 bit view of a page, for word access within it */
+	protected static final VarHandle WORD =
+		MethodHandles.byteArrayViewVarHandle( short[].class, ByteOrder.LITTLE_ENDIAN );
 
 	/** 16 bit register access */
 	public final int  AF() { return (A() << 8) | F(); }
@@ -130,24 +299,17 @@ public class Z80 extends Object {
 	}
 
 	public final int F() {
-		return	(Sset()  ? F_S  : 0)  |
-			(Zset()  ? F_Z  : 0)  |
-			(f5      ? F_5  : 0)  |
-			(Hset()  ? F_H  : 0)  |
-			(f3      ? F_3  : 0)  |
-			(PVset() ? F_PV : 0)  |
-			(Nset()  ? F_N  : 0)  |
-			(Cset()  ? F_C  : 0);
+		if ( LAZY_FLAGS && (lazyOp != 0) ) {
+			_F = flagsOf( lazyOp, lazyA, lazyB, lazyR );
+			lazyOp = 0;
+		}
+		return _F;
 	}
 	public final void F( int bite ) {
-		fS  = (bite & F_S)  != 0;
-		fZ  = (bite & F_Z)  != 0;
-		f5  = (bite & F_5)  != 0;
-		fH  = (bite & F_H)  != 0;
-		f3  = (bite & F_3)  != 0;
-		fPV = (bite & F_PV) != 0;
-		fN  = (bite & F_N)  != 0;
-		fC  = (bite & F_C)  != 0;
+		_F = bite;
+		if ( LAZY_FLAGS ) {
+			lazyOp = 0;
+		}
 	}
 
 
@@ -224,29 +386,102 @@ public class Z80 extends Object {
 
 
 	/** Flag access */
-	public final void setZ( boolean f ) { fZ = f; }
-	public final void setC( boolean f ) { fC = f; }
-	public final void setS( boolean f ) { fS = f; }
-	public final void setH( boolean f ) { fH = f; }
-	public final void setN( boolean f ) { fN = f; }
-	public final void setPV( boolean f ) {fPV = f;}
-	public final void set3( boolean f ) { f3 = f; }
-	public final void set5( boolean f ) { f5 = f; }
-
-	public final boolean Zset()  { return fZ; }
-	public final boolean Cset()  { return fC; }
-	public final boolean Sset()  { return fS; }
-	public final boolean Hset()  { return fH; }
-	public final boolean Nset()  { return fN; }
-	public final boolean PVset() { return fPV; }
+	public final void setZ( boolean f ) { F( f ? (F() | F_Z)  : (F() & ~F_Z)  ); }
+	public final void setC( boolean f ) { F( f ? (F() | F_C)  : (F() & ~F_C)  ); }
+	public final void setS( boolean f ) { F( f ? (F() | F_S)  : (F() & ~F_S)  ); }
+	public final void setH( boolean f ) { F( f ? (F() | F_H)  : (F() & ~F_H)  ); }
+	public final void setN( boolean f ) { F( f ? (F() | F_N)  : (F() & ~F_N)  ); }
+	public final void setPV( boolean f ) {F( f ? (F() | F_PV) : (F() & ~F_PV) ); }
+	public final void set3( boolean f ) { F( f ? (F() | F_3)  : (F() & ~F_3)  ); }
+	public final void set5( boolean f ) { F( f ? (F() | F_5)  : (F() & ~F_5)  ); }
+
+	public final boolean Zset()  {
+		if ( LAZY_FLAGS && (lazyOp != 0) ) {
+			return (lazyR & 0xff) == 0;
+		}
+		return (_F & F_Z) != 0;
+	}
+	public final boolean Cset()  { return carry() != 0; }
+	public final boolean Sset()  {
+		if ( LAZY_FLAGS && (lazyOp != 0) ) {
+			return (lazyR & 0x80) != 0;
+		}
+		return (_F & F_S) != 0;
+	}
+	public final boolean Hset()  { return (F() & F_H)  != 0; }
+	public final boolean Nset()  { return (F() & F_N)  != 0; }
+	public final boolean PVset() { return (F() & F_PV) != 0; }
+
+	/** Carry as 0 or 1, without working out the other lazy flags */
+	private final int carry() {
+		if ( LAZY_FLAGS && (lazyOp != 0) ) {
+			switch ( lazyOp ) {
+			case L_ADD:
+			case L_SUB:
+			case L_CP:
+				return (lazyR >> 8) & F_C;
+			case L_INC:
+			case L_DEC:
+				return lazyB;
+			}
+			return 0;
+		}
+		return _F & F_C;
+	}
+
+	/** Set the flags for an ALU operation, or just note it in lazy mode */
+	private final void flags( int op, int a, int b, int r ) {
+		if ( LAZY_FLAGS ) {
+			lazyOp = op;
+			lazyA  = a;
+			lazyB  = b;
+			lazyR  = r;
+		}
+		else {
+			_F = flagsOf( op, a, b, r );
+		}
+	}
+
+	/** Flags after an ALU operation on a and b giving r. For INC and
+	 *  DEC b is the carry to keep, for AND and OR only r is used.
+	 */
+	private static final int flagsOf( int op, int a, int b, int r ) {
+		int ans = r & 0xff;
+
+		switch ( op ) {
+		case L_ADD:
+			return SZ53[ ans ] | ((r >> 8) & F_C) | ((a ^ b ^ ans) & F_H) |
+				(((a ^ ~b) & (a ^ ans) & 0x80) >> 5);
+		case L_SUB:
+			return SZ53[ ans ] | ((r >> 8) & F_C) | ((a ^ b ^ ans) & F_H) |
+				(((a ^ b) & (a ^ ans) & 0x80) >> 5) | F_N;
+		case L_CP:
+			return SZ[ ans ] | (b & (F_5 | F_3)) | ((r >> 8) & F_C) | ((a ^ b ^ ans) & F_H) |
+				(((a ^ b) & (a ^ ans) & 0x80) >> 5) | F_N;
+		case L_AND:
+			return SZ53P[ ans ] | F_H;
+		case L_OR:
+			return SZ53P[ ans ];
+		case L_INC:
+			return SZ53[ ans ] | ((a == 0x7f) ? F_PV : 0) | (((a & 0x0f) + 1) & F_H) | b;
+		case L_DEC:
+			return SZ53[ ans ] | ((a == 0x80) ? F_PV : 0) | (((a & 0x0f) - 1) & F_H) | F_N | b;
+		}
+		return 0;
+	}
 
 
 	/** Byte access */
 	private final int peekb( int addr ) {
-		return mem[ addr ];
+		return pages[ addr >> 14 ][ addr & 0x3fff ] & 0xff;
 	}
 	public void pokeb( int addr, int newByte ) {
-		mem[ addr ] = newByte;
+		pages[ addr >> 14 ][ addr & 0x3fff ] = (byte) newByte;
+	}
+
+	/** The byte at addr, for whatever is looking at the machine */
+	public final int peek( int addr ) {
+		return peekb( addr & 0xffff );
 	}
 
 
@@ -257,9 +492,10 @@ public class Z80 extends Object {
 		pokeb( addr & 0xffff, word >> 8 );
 	}
 	private final int peekw( int addr ) {
-		int        t = peekb( addr );
-		addr++;
-		return t | (peekb( addr & 0xffff ) << 8);
+		if ( (addr & 0x3fff) != 0x3fff ) {
+			return ((short) WORD.get( pages[ addr >> 14 ], addr & 0x3fff )) & 0xffff;
+		}
+		return peekb( addr ) | (peekb( (addr + 1) & 0xffff ) << 8);
 	}
 
 
@@ -277,10 +513,8 @@ public class Z80 extends Object {
 	}
 	public final int popw() {
 		int	sp = SP();
-		int	t  = peekb( sp );
-			sp++;
-			t |= (peekb( sp & 0xffff) << 8);
-			SP( ++sp & 0xffff );
+		int	t  = peekw( sp );
+		SP( (sp + 2) & 0xffff );
 		return t;
 	}
     
@@ -299,9 +533,8 @@ public class Z80 extends Object {
 	}
 	private final int nxtpcw() {
 		int pc = PC();
-		int t = peekb( pc );
-		t |= ( peekb( ++pc & 0xffff ) << 8 );
-		PC( ++pc & 0xffff );
+		int t = peekw( pc );
+		PC( (pc + 2) & 0xffff );
 		return t;
 	}
 
@@ -346,10 +579,6 @@ public class Z80 extends Object {
 	}
 
 	/** Interrupt handlers */
-	private static final boolean interruptTriggered( int tstates ) {
-		return (tstates >= 0);
-	}
-
 	public int interrupt() {
 		// If not a non-maskable interrupt
 		if ( !IFF1() ) {
@@ -377,19 +606,398 @@ public class Z80 extends Object {
 	}
 
 
-	/** Z80 fetch/execute loop */
+	/** Run forever, one frame at a time */
 	public final void execute() {
-		int    local_tstates = -tstatesPerInterrupt;
+		while ( true ) {
+			runFrames( 1 );
+		}
+	}
+
+	/** Run until the given number of interrupts have been taken */
+	public final void runFrames( int n ) {
+		for ( int i = 0; i < n; i++ ) {
+			execute( 0 );
+		}
+	}
+
+	/** Run for at least the given number of T-states,
+	 *  returns the number of T-states actually run.
+	 */
+	public final long runTStates( long n ) {
+		long done = 0;
+
+		while ( done < n ) {
+			int chunk = (int) Math.min( n - done, tstatesPerInterrupt );
+			done += chunk + execute( tstates + chunk );
+		}
+
+		return done;
+	}
+
+	/** Execute a single instruction, returns the T-states it took */
+	public final int step() {
+		return (int) runTStates( 1 );
+	}
+
+	/** Z80 fetch/execute loop, runs until the T-state counter reaches
+	 *  end and returns by how many T-states it went past it. Taking an
+	 *  interrupt moves both the counter and end back by a frame. The
+	 *  only test made before each instruction is against the deadline.
+	 */
+	private final int execute( int end ) {
+		Debugger debugger = this.debugger;
+		if ( debugger != null ) {
+			return executeDebug( end, debugger );
+		}
+
+		int    local_tstates = tstates;
+		int    next = runLimit = nextDeadline( end );
+		runEnd = end;
+		rescheduled = false;
 
 		while ( true ) {
 
-		if ( interruptTriggered( local_tstates ) ) {
-			local_tstates -= tstatesPerInterrupt - interrupt();
+		if ( local_tstates >= next ) {
+			if ( local_tstates >= (RESCHEDULED >> 1) ) {
+				// An IN or OUT lowered the deadline
+				local_tstates -= RESCHEDULED;
+				next = runLimit;
+				continue;
+			}
+			local_tstates = dispatch( local_tstates, true );
+			end = runEnd;
+			if ( local_tstates >= end ) {
+				break;
+			}
+			next = runLimit = nextDeadline( end );
+			rescheduled = false;
+		}
+
+		if ( PROFILE || TRACE ) {
+			int pc = _PC, sp = _SP, before = local_tstates;
+			int op = PROFILE ? Profiler.opcode( this, pc ) : 0;
+			if ( TRACE && (tracer != null) ) {
+				tracer.record( this, local_tstates );
+			}
+			REFRESH( 1 );
+			local_tstates = execute_op( nxtpcb(), local_tstates );
+			if ( PROFILE ) {
+				// Without any RESCHEDULED
+				profiler.count( this, pc, op, sp, (local_tstates - before) & ~RESCHEDULED );
+			}
+			continue;
 		}
 
 		REFRESH( 1 );
 
-		switch ( nxtpcb() ) {
+		local_tstates = execute_op( nxtpcb(), local_tstates );
+
+		} // end while
+
+		tstates = local_tstates;
+		return local_tstates - end;
+	}
+
+	/** Breakpoints and watchpoints, when set the Z80 runs executeDebug */
+	public volatile Debugger debugger = null;
+
+	/** The fetch/execute loop with the debugger asked before and after
+	 *  every instruction. Nothing is run ahead: with runLimit far in the
+	 *  past LDIR, LDDR and idle loops go round one time at a time.
+	 */
+	private final int executeDebug( int end, Debugger debugger ) {
+		int    local_tstates = tstates;
+		runEnd = end;
+		runLimit = -(1 << 30);
+		rescheduled = false;
+		int    next = nextDeadline( end );
+
+		while ( true ) {
+
+		if ( local_tstates >= next ) {
+			local_tstates = dispatch( local_tstates, false );
+			end = runEnd;
+			if ( local_tstates >= end ) {
+				break;
+			}
+			next = nextDeadline( end );
+		}
+
+		tstates = local_tstates;
+		debugger.before( this );
+
+		REFRESH( 1 );
+		local_tstates = execute_op( nxtpcb(), local_tstates );
+
+		tstates = local_tstates;
+		debugger.after( this );
+
+		// The instruction or the debugger may have scheduled an event
+		next = nextDeadline( end );
+
+		} // end while
+
+		tstates = local_tstates;
+		return local_tstates - end;
+	}
+
+	/** With -Djasper.profile=true every instruction is counted by the
+	 *  profiler, with the T-states it took.
+	 */
+	public static final boolean PROFILE = getBoolean( "jasper.profile" );
+
+	/** Counts for the profiler, null unless PROFILE */
+	public final Profiler profiler = PROFILE ? new Profiler() : null;
+
+	/** With -Djasper.trace=true every instruction is recorded by the
+	 *  tracer, when there is one.
+	 */
+	public static final boolean TRACE = getBoolean( "jasper.trace" );
+
+	/** Where instructions are recorded, only used if TRACE */
+	public Tracer tracer = null;
+
+	/** With -Djasper.idleSkip=true a loop which comes back to the same
+	 *  state without writing anything runs straight up to the interrupt.
+	 */
+	public static final boolean IDLE_SKIP = getBoolean( "jasper.idleSkip" );
+
+	/** Loops skipped and the T-states they would have taken */
+	public long idleSkips   = 0;
+	public long idleTStates = 0;
+
+	/** Longest loop body looked at, in bytes */
+	private static final int MAX_IDLE_BODY = 24;
+
+	/** The loop last jumped back to, the opcodes fetched going round it
+	 *  once (0 if it can't be skipped) and the state when it was.
+	 */
+	private int     idleStart = -1, idleJump = -1, idleFetches = 0;
+	private int     idleAF, idleBC, idleDE, idleHL, idleIX, idleIY, idleSP;
+	private int     idleR, idleT;
+
+	/** Called after a jump back to PC from the jump instruction at
+	 *  PC - d - 2. Once the loop has gone round once without branching,
+	 *  writing memory or ports and come back to the same registers, every
+	 *  time round until the interrupt is the same. All but the last of
+	 *  those are skipped by only adding their T-states and refresh cycles.
+	 *  Anything run since the jump before other than the loop itself, such
+	 *  as leaving it and coming back, fetches more opcodes, so R tells that
+	 *  the last time round was straight. The body is looked at again then,
+	 *  in case what ran in between rewrote it.
+	 */
+	private final int idle( int d, int local_tstates ) {
+		int start = _PC;
+		int jump  = (start - d - 2) & 0xffff;
+
+		if ( (d == -5) && (peekb( jump ) == 0x20) ) {
+			return idleCount( start, local_tstates );
+		}
+
+		if ( (start != idleStart) || (jump != idleJump) ||
+				((idleFetches > 0) && ((_R - idleR) != idleFetches)) ) {
+			idleStart   = start;
+			idleJump    = jump;
+			idleFetches = idleBody( start, jump );
+		}
+		else
+		if ( (idleFetches > 0) && (AF() == idleAF) && (BC() == idleBC) && (DE() == idleDE) && (HL() == idleHL) &&
+				(IX() == idleIX) && (IY() == idleIY) && (SP() == idleSP) ) {
+			// The interrupt can come part way round, so stop short of it
+			int t = local_tstates - idleT;
+			int k = (runLimit - local_tstates - 1) / t;
+			if ( k > 0 ) {
+				REFRESH( k * idleFetches );
+				local_tstates += k * t;
+				idleSkips++;
+				idleTStates += (long) k * t;
+			}
+		}
+
+		if ( idleFetches > 0 ) {
+			idleAF = AF(); idleBC = BC(); idleDE = DE(); idleHL = HL();
+			idleIX = IX(); idleIY = IY(); idleSP = SP();
+			idleR  = _R;
+			idleT  = local_tstates;
+		}
+		return local_tstates;
+	}
+
+	/** DEC rr; LD A,r; OR r'; JR NZ, the usual delay loop on a register
+	 *  pair, goes round in closed form up to the interrupt.
+	 */
+	private final int idleCount( int start, int local_tstates ) {
+		int op = peekb( start );
+		int rr;
+		if ( (op & 0xcf) != 0x0b ) {
+			return local_tstates;
+		}
+		switch ( op ) {
+		case 0x0b: rr = BC(); break;
+		case 0x1b: rr = DE(); break;
+		case 0x2b: rr = HL(); break;
+		default:   return local_tstates;
+		}
+		// LD A,hi and OR lo of the same pair
+		int hi = 0x78 + ((op >> 4) << 1);
+		if ( (peekb( (start + 1) & 0xffff ) != hi) || (peekb( (start + 2) & 0xffff ) != hi + 0x39) ) {
+			return local_tstates;
+		}
+
+		// Each time round is 26 T-states, and the interrupt can come part way
+		int k = Math.min( rr - 1, (runLimit - local_tstates - 1) / 26 );
+		if ( k > 0 ) {
+			rr -= k;
+			switch ( op ) {
+			case 0x0b: BC( rr ); break;
+			case 0x1b: DE( rr ); break;
+			case 0x2b: HL( rr ); break;
+			}
+			A( rr >> 8 );
+			or_a( rr & 0xff );
+			REFRESH( 4*k );
+			local_tstates += k * 26;
+			idleSkips++;
+			idleTStates += k * 26;
+		}
+		return local_tstates;
+	}
+
+	/** DJNZ to itself, only B and R change so it runs to the interrupt at once */
+	private final int idleDjnz( int local_tstates ) {
+		int k = Math.min( B() - 1, (runLimit - local_tstates + 12) / 13 );
+		if ( k > 0 ) {
+			B( B() - k );
+			REFRESH( k );
+			local_tstates += k * 13;
+			idleSkips++;
+			idleTStates += k * 13;
+		}
+		return local_tstates;
+	}
+
+	/** The opcodes fetched going once round the code from start and the
+	 *  jump at end, or 0 if it has branches or writes to memory, ports or
+	 *  the other register set.
+	 */
+	private final int idleBody( int start, int end ) {
+		if ( ((end - start) & 0xffff) > MAX_IDLE_BODY ) {
+			return 0;
+		}
+
+		int addr = start, fetches = 1;
+		while ( addr != end ) {
+			int len = idleLength( addr );
+			if ( (len == 0) || (((end - addr) & 0xffff) < len) ) {
+				return 0;
+			}
+			// Prefixed instructions fetch two opcodes, DDCB and FDCB too
+			int op = peekb( addr );
+			fetches += ((op == 0xcb) || (op == 0xed) || (op == 0xdd) || (op == 0xfd)) ? 2 : 1;
+			addr = (addr + len) & 0xffff;
+		}
+		return fetches;
+	}
+
+	/** Length of the instruction at addr if it only reads, otherwise 0 */
+	private final int idleLength( int addr ) {
+		int op = peekb( addr );
+
+		if ( (op >= 0x40) && (op < 0xc0) ) {
+			// LD r,r', LD r,(HL) and ALU A,r but not LD (HL),r or HALT
+			return ((op & 0xf8) == 0x70) ? 0 : 1;
+		}
+
+		switch ( op ) {
+		case 0x00:  /* NOP */
+		case 0x07: case 0x0f: case 0x17: case 0x1f:  /* RLCA ... RRA */
+		case 0x27: case 0x2f: case 0x37: case 0x3f:  /* DAA, CPL, SCF, CCF */
+		case 0x0a: case 0x1a:  /* LD A,(BC/DE) */
+			return 1;
+		case 0x2a: case 0x3a:  /* LD HL,(nn), LD A,(nn) */
+			return 3;
+		case 0xdb:  /* IN A,(n) */
+			return 2;
+
+		case 0xcb:
+		{
+			int op2 = peekb( (addr + 1) & 0xffff );
+			// BIT, or shifts, RES and SET of registers
+			return (((op2 & 0xc0) == 0x40) || ((op2 & 0x07) != 6)) ? 2 : 0;
+		}
+		case 0xed:
+		{
+			int op2 = peekb( (addr + 1) & 0xffff );
+			// IN r,(C) and NEG
+			return (((op2 & 0xc7) == 0x40) || (op2 == 0x44)) ? 2 : 0;
+		}
+		case 0xdd:
+		case 0xfd:
+		{
+			int op2 = peekb( (addr + 1) & 0xffff );
+			if ( op2 == 0x21 ) return 4;  /* LD ID,nn */
+			if ( (op2 == 0x23) || (op2 == 0x2b) || ((op2 & 0xcf) == 0x09) ) return 2;
+			// LD r,(ID+d) and ALU A,(ID+d)
+			if ( (((op2 & 0xc7) == 0x46) && (op2 != 0x76)) || ((op2 & 0xc7) == 0x86) ) return 3;
+			if ( op2 == 0xcb ) {
+				// BIT b,(ID+d)
+				return ((peekb( (addr + 3) & 0xffff ) & 0xc0) == 0x40) ? 4 : 0;
+			}
+			return 0;
+		}
+		}
+
+		if ( ((op & 0xc6) == 0x04) && ((op & 0x38) != 0x30) ) return 1;  /* INC/DEC r */
+		if ( ((op & 0xc7) == 0x06) && (op != 0x36) ) return 2;           /* LD r,n */
+		if ( ((op & 0xc7) == 0x03) || ((op & 0xcf) == 0x09) ) return 1;  /* INC/DEC rr, ADD HL,rr */
+		if ( (op & 0xcf) == 0x01 ) return 3;                              /* LD rr,nn */
+		if ( (op & 0xc7) == 0xc6 ) return 2;                              /* ALU A,n */
+		return 0;
+	}
+
+	/** How far LDIR and idle loops may run ahead, the deadline */
+	private int runLimit = 0;
+
+	/** Where the current run ends, relative to the interrupt like the
+	 *  counter and moved back a frame with it by every interrupt taken.
+	 *  Not a clock time, so a state restored by the interrupt handler,
+	 *  as rewinding does, still ends the run where it would have ended.
+	 */
+	private int runEnd = 0;
+
+	/** Set when schedule() lowered runLimit in the middle of a run */
+	private boolean rescheduled = false;
+
+	/** Added by io() to the T-states of an IN or OUT after which runLimit
+	 *  was lowered, so that the loop is past its deadline straight away.
+	 *  There it takes the bias off again and takes up runLimit. Only the
+	 *  instructions reaching the ports pay for a look at the flag.
+	 */
+	private static final int RESCHEDULED = 1 << 29;
+
+	/** The T-states t of an IN or OUT, see RESCHEDULED */
+	private final int io( int t ) {
+		if ( rescheduled ) {
+			rescheduled = false;
+			return t + RESCHEDULED;
+		}
+		return t;
+	}
+
+	/** Execute an opcode whose first byte has been fetched */
+	private final int execute_op( int op, int local_tstates ) {
+		switch ( op >> 6 ) {
+		case 0: return execute_misc( op, local_tstates );
+		case 1: return execute_ld( op, local_tstates );
+		case 2: return execute_alu( op, local_tstates );
+		}
+		return execute_ctrl( op, local_tstates );
+	}
+
+	/** Opcodes 00-3F: relative jumps, 16 bit loads, INC/DEC and rotates of A */
+	private final int execute_misc( int op, int local_tstates ) {
+
+		switch ( op ) {
 
 		case 0:    /* NOP */
 		{
@@ -411,6 +1019,9 @@ public class Z80 extends Object {
 				byte d = (byte) nxtpcb();
 				PC( (PC()+d)&0xffff );
 				local_tstates += ( 13 );
+				if ( IDLE_SKIP && (d == -2) ) {
+					local_tstates = idleDjnz( local_tstates );
+				}
 			}
 			else {
 				PC( inc16( PC() ) );
@@ -423,6 +1034,9 @@ public class Z80 extends Object {
 			byte d = (byte)nxtpcb();
 			PC( (PC()+d)&0xffff );
 			local_tstates += ( 12 );
+			if ( IDLE_SKIP && (d < 0) ) {
+				local_tstates = idle( d, local_tstates );
+			}
 			break;
 		}
 		/* JR cc,dis */
@@ -432,6 +1046,9 @@ public class Z80 extends Object {
 				byte d = (byte)nxtpcb();
 				PC( (PC()+d)&0xffff );
 				local_tstates += ( 12 );
+				if ( IDLE_SKIP && (d < 0) ) {
+					local_tstates = idle( d, local_tstates );
+				}
 			}
 			else {
 				PC( inc16( PC() ) );
@@ -445,6 +1062,9 @@ public class Z80 extends Object {
 				byte d = (byte)nxtpcb();
 				PC( (PC()+d)&0xffff );
 				local_tstates += ( 12 );
+				if ( IDLE_SKIP && (d < 0) ) {
+					local_tstates = idle( d, local_tstates );
+				}
 			}
 			else {
 				PC( inc16( PC() ) );
@@ -458,6 +1078,9 @@ public class Z80 extends Object {
 				byte d = (byte)nxtpcb();
 				PC( (PC()+d)&0xffff );
 				local_tstates += ( 12 );
+				if ( IDLE_SKIP && (d < 0) ) {
+					local_tstates = idle( d, local_tstates );
+				}
 			}
 			else {
 				PC( inc16( PC() ) );
@@ -471,6 +1094,9 @@ public class Z80 extends Object {
 				byte d = (byte)nxtpcb();
 				PC( (PC()+d)&0xffff );
 				local_tstates += ( 12 );
+				if ( IDLE_SKIP && (d < 0) ) {
+					local_tstates = idle( d, local_tstates );
+				}
 			}
 			else {
 				PC( inc16( PC() ) );
@@ -652,6 +1278,16 @@ public class Z80 extends Object {
 		case 63: /* CCF */
 		{ ccf(); local_tstates += ( 4 ); break; }
 
+		} // end switch
+
+		return local_tstates;
+	}
+
+	/** Opcodes 40-7F: LD r,r' and HALT */
+	private final int execute_ld( int op, int local_tstates ) {
+
+		switch ( op ) {
+
 		/* LD B,* */
 		case 64:    /* LD B,B */
 		{ local_tstates += ( 4 ); break; }
@@ -774,10 +1410,14 @@ public class Z80 extends Object {
 		case 117:    /* LD (HL),L */
 		{ pokeb( HL(), L() ); local_tstates += ( 7 ); break; }
 		case 118:    /* HALT */
-		{ 
-			int  haltsToInterrupt = (((-local_tstates-1) / 4)+1);
-			local_tstates += (haltsToInterrupt*4);
-			REFRESH( haltsToInterrupt-1 );
+		{
+			// Halt up to the deadline, and again if that is short of the interrupt
+			int  halts = Math.max( 1, ((Math.min( runLimit, 0 ) - local_tstates - 1) / 4)+1 );
+			local_tstates += (halts*4);
+			REFRESH( halts-1 );
+			if ( local_tstates < 0 ) {
+				PC( (PC()-1)&0xffff );
+			}
 			break;
 		}
 		case 119:    /* LD (HL),A */
@@ -801,6 +1441,16 @@ public class Z80 extends Object {
 		case 127:    /* LD A,A */
 		{ local_tstates += ( 4 ); break; }
 
+		} // end switch
+
+		return local_tstates;
+	}
+
+	/** Opcodes 80-BF: 8 bit arithmetic and logic on registers and (HL) */
+	private final int execute_alu( int op, int local_tstates ) {
+
+		switch ( op ) {
+
 		/* ADD A,* */
 		case 128:    /* ADD A,B */
 		{ add_a( B() ); local_tstates += ( 4 ); break; }
@@ -945,6 +1595,16 @@ public class Z80 extends Object {
 		case 191:    /* CP A() */
 		{ cp_a( A() ); local_tstates += ( 4 ); break; }
 
+		} // end switch
+
+		return local_tstates;
+	}
+
+	/** Opcodes C0-FF: jumps, calls, returns, the stack, ALU immediates and the prefixes */
+	private final int execute_ctrl( int op, int local_tstates ) {
+
+		switch ( op ) {
+
 		/* RET cc */
 		case 192:    /* RET NZ */
 		{
@@ -1061,7 +1721,11 @@ public class Z80 extends Object {
 		case 194:    /* JP NZ,nn */
 		{
 			if(!Zset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1072,7 +1736,11 @@ public class Z80 extends Object {
 		case 202:    /* JP Z,nn */
 		{
 			if( Zset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1083,7 +1751,11 @@ public class Z80 extends Object {
 		case 210:    /* JP NC,nn */
 		{
 			if(!Cset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1094,7 +1766,11 @@ public class Z80 extends Object {
 		case 218:    /* JP C,nn */
 		{
 			if( Cset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1105,7 +1781,11 @@ public class Z80 extends Object {
 		case 226:    /* JP PO,nn */
 		{
 			if(!PVset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1116,7 +1796,11 @@ public class Z80 extends Object {
 		case 234:    /* JP PE,nn */
 		{
 			if( PVset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1127,7 +1811,11 @@ public class Z80 extends Object {
 		case 242:    /* JP P,nn */
 		{
 			if(!Sset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1138,7 +1826,11 @@ public class Z80 extends Object {
 		case 250:    /* JP M,nn */
 		{
 			if( Sset()) {
+				int at = (PC() - 1) & 0xffff;
 				PC( nxtpcw() );
+				if ( IDLE_SKIP && (PC() <= at) ) {
+					local_tstates = idle( PC() - at - 2, local_tstates + 10 ) - 10;
+				}
 			}
 			else {
 				PC( (PC()+2)&0xffff );
@@ -1150,19 +1842,27 @@ public class Z80 extends Object {
 
 		/* Various */
 		case 195:    /* JP nn */
-		{ PC( peekw( PC() ) ); local_tstates += ( 10 ); break; }
+		{
+			int at = (PC() - 1) & 0xffff;
+			PC( peekw( PC() ) );
+			local_tstates += ( 10 );
+			if ( IDLE_SKIP && (PC() <= at) ) {
+				local_tstates = idle( PC() - at - 2, local_tstates );
+			}
+			break;
+		}
 		case 203:    /* prefix CB */
 		{ local_tstates += execute_cb(); break; }
 		case 211:    /* OUT (n),A */
 		{
 			outb( nxtpcb(), A(), local_tstates );
-			local_tstates += ( 11 );
+			local_tstates += io( 11 );
 			break;
 		}
 		case 219:    /* IN A,(n) */
 		{
 			A( inb((A() << 8) | nxtpcb()) );
-			local_tstates += ( 11 );
+			local_tstates += io( 11 );
 			break;
 		}
 		case 227:    /* EX (SP),HL */
@@ -1381,9 +2081,9 @@ public class Z80 extends Object {
 		case 255:    /* RST 56 */
 		{ pushpc(); PC( 56 ); local_tstates += ( 11 ); break; }
 
-		}
+		} // end switch
 
-		} // end while
+		return local_tstates;
 	}
 
 
@@ -1391,7 +2091,14 @@ public class Z80 extends Object {
 
 		REFRESH( 1 );
 
-		switch ( nxtpcb() ) {
+		int op = nxtpcb();
+
+		// Keep the block instructions out of line so both halves stay small
+		if ( (op & 0xe4) == 0xa0 ) {
+			return execute_ed_block( op, local_tstates );
+		}
+
+		switch ( op ) {
 
 		case 0:  /* NOP */
 		case 1:
@@ -1512,39 +2219,39 @@ public class Z80 extends Object {
 
 		/* IN r,(c) */
 		case 64:  /* IN B,(c) */
-		{ B( in_bc() ); return ( 12 ); }
+		{ B( in_bc() ); return io( 12 ); }
 		case 72:  /* IN C,(c) */
-		{ C( in_bc() ); return ( 12 ); }
+		{ C( in_bc() ); return io( 12 ); }
 		case 80:  /* IN D,(c) */
-		{ D( in_bc() ); return ( 12 ); }
+		{ D( in_bc() ); return io( 12 ); }
 		case 88:  /* IN E,(c) */
-		{ E( in_bc() ); return ( 12 ); }
+		{ E( in_bc() ); return io( 12 ); }
 		case 96:  /* IN H,(c) */
-		{ H( in_bc() ); return ( 12 ); }
+		{ H( in_bc() ); return io( 12 ); }
 		case 104:  /* IN L,(c) */
-		{ L( in_bc() ); return ( 12 ); }
+		{ L( in_bc() ); return io( 12 ); }
 		case 112:  /* IN (c) */
-		{ in_bc(); return ( 12 ); }
+		{ in_bc(); return io( 12 ); }
 		case 120:  /* IN A,(c) */
-		{ A( in_bc() ); return ( 12 ); }
+		{ A( in_bc() ); return io( 12 ); }
 
 		/* OUT (c),r */
 		case 65:  /* OUT (c),B */
-		{ outb( BC(), B(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), B(), local_tstates ); return io( 12 ); }
 		case 73:  /* OUT (c),C */
-		{ outb( BC(), C(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), C(), local_tstates ); return io( 12 ); }
 		case 81:  /* OUT (c),D */
-		{ outb( BC(), D(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), D(), local_tstates ); return io( 12 ); }
 		case 89:  /* OUT (c),E */
-		{ outb( BC(), E(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), E(), local_tstates ); return io( 12 ); }
 		case 97:  /* OUT (c),H */
-		{ outb( BC(), H(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), H(), local_tstates ); return io( 12 ); }
 		case 105:  /* OUT (c),L */
-		{ outb( BC(), L(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), L(), local_tstates ); return io( 12 ); }
 		case 113:  /* OUT (c),0 */
-		{ outb( BC(), 0, local_tstates ); return ( 12 ); }
+		{ outb( BC(), 0, local_tstates ); return io( 12 ); }
 		case 121:  /* OUT (c),A */
-		{ outb( BC(), A(), local_tstates ); return ( 12 ); }
+		{ outb( BC(), A(), local_tstates ); return io( 12 ); }
 
 		/* SBC/ADC HL,ss */
 		case 66:  /* SBC HL,BC */
@@ -1647,6 +2354,17 @@ public class Z80 extends Object {
 		case 111:  /* RLD */
 		{ rld_a(); return ( 18 ); }
 
+		} // end switch
+
+		// NOP
+		return ( 8 );
+	}
+
+	/** ED block transfer, search and I/O: LDI/LDIR and friends */
+	private final int execute_ed_block( int op, int local_tstates ) {
+
+		switch ( op ) {
+
 		/* xxI */
 		case 160:  /* LDI */
 		{
@@ -1684,7 +2402,7 @@ public class Z80 extends Object {
 			setZ( b == 0 );
 			setN( true );
 
-			return ( 16 );
+			return io( 16 );
 		}
 		case 163:  /* OUTI */
 		{
@@ -1696,7 +2414,7 @@ public class Z80 extends Object {
 			setZ( b == 0 );
 			setN( true );
 
-			return ( 16 );
+			return io( 16 );
 		}
 
 		/* xxD */
@@ -1736,7 +2454,7 @@ public class Z80 extends Object {
 			setZ( b == 0 );
 			setN( true );
 
-			return ( 16 );
+			return io( 16 );
 		}
 		case 171:  /* OUTD */
 		{
@@ -1748,48 +2466,13 @@ public class Z80 extends Object {
 			setZ( b == 0 );
 			setN( true );
 
-			return ( 16 );
+			return io( 16 );
 		}
 
 		/* xxIR */
 		case 176:  /* LDIR */
 		{
-			int _local_tstates = 0;
-			int count, dest, from;
-
-			count = BC();
-			dest = DE();
-			from = HL();
-			REFRESH( -2 );
-			do {
-				pokeb(dest, peekb(from) );
-				from  = inc16( from );
-				dest  = inc16( dest );
-				count = dec16( count );
-
-				_local_tstates += ( 21 );
-				REFRESH( 2 );
-				if ( interruptTriggered( _local_tstates ) ) {
-					break;
-				}
-			} while (count != 0);
-			if (count != 0) {
-				PC( (PC()-2)&0xffff );
-				setH( false );
-				setN( false );
-				setPV( true );
-			}
-			else {
-				_local_tstates += ( -5 );
-				setH( false );
-				setN( false );
-				setPV( false );
-			}
-			DE( dest );
-			HL( from );
-			BC( count );
-
-			return ( _local_tstates );
+			return ldxr( 1, local_tstates );
 		}
 		case 177:  /* CPIR */
 		{
@@ -1820,9 +2503,9 @@ public class Z80 extends Object {
 			setN( true );
 			if (b != 0) {
 				PC( (PC()-2)&0xffff );
-				return ( 21 );
+				return io( 21 );
 			}
-			return ( 16 );
+			return io( 16 );
 		}
 		case 179:  /* OTIR */
 		{
@@ -1835,50 +2518,15 @@ public class Z80 extends Object {
 			setN( true );
 			if (b != 0) {
 				PC( (PC()-2)&0xffff );
-				return ( 21 );
+				return io( 21 );
 			}
-			return ( 16 );
+			return io( 16 );
 		}
 
 		/* xxDR */
 		case 184:  /* LDDR */
 		{
-			int _local_tstates = 0;
-			int count, dest, from;
-
-			count = BC();
-			dest = DE();
-			from = HL();
-			REFRESH ( -2 );
-			do {
-				pokeb(dest, peekb(from));
-				from  = dec16( from );
-				dest  = dec16( dest );
-				count = dec16( count );
-
-				_local_tstates += ( 21 );
-				REFRESH( 2 );
-				if ( interruptTriggered( _local_tstates ) ) {
-					break;
-				}
-			} while (count != 0);
-			if (count != 0) {
-				PC( (PC()-2)&0xffff );
-				setH( false );
-				setN( false );
-				setPV( true );
-			}
-			else {
-				_local_tstates += ( -5 );
-				setH( false );
-				setN( false );
-				setPV( false );
-			}
-			DE( dest );
-			HL( from );
-			BC( count );
-
-			return ( _local_tstates );
+			return ldxr( -1, local_tstates );
 		}
 		case 185:  /* CPDR */
 		{
@@ -1909,9 +2557,9 @@ public class Z80 extends Object {
 			setN( true );
 			if (b != 0) {
 				PC( (PC()-2)&0xffff );
-				return ( 21 );
+				return io( 21 );
 			}
-			return ( 16 );
+			return io( 16 );
 		}
 		case 187:  /* OTDR */
 		{
@@ -1924,9 +2572,9 @@ public class Z80 extends Object {
 			setN( true );
 			if (b != 0) {
 				PC( (PC()-2)&0xffff );
-				return ( 21 );
+				return io( 21 );
 			}
-			return ( 16 );
+			return io( 16 );
 		}
 
 		} // end switch
@@ -1935,10 +2583,96 @@ public class Z80 extends Object {
 		return ( 8 );
 	}
 
+	/** LDIR (step 1) and LDDR (step -1), every iteration which starts
+	 *  before the interrupt or the end of the run is done in one go.
+	 */
+	private final int ldxr( int step, int local_tstates ) {
+		int count = BC();
+		int dest  = DE();
+		int from  = HL();
+
+		int n = Math.max( 1, (runLimit - local_tstates + 20) / 21 );
+		n = Math.min( n, (count == 0) ? 65536 : count );
+
+		// Stop after overwriting the instruction itself, it is fetched again
+		int op = (PC() - 2) & 0xffff;
+		int hit = Math.min( distance( op, dest, step ), distance( (op + 1) & 0xffff, dest, step ) );
+		n = Math.min( n, hit + 1 );
+
+		for ( int done = 0; done < n; ) {
+			// Neither range may wrap around within one copy
+			int len = (step > 0) ?
+				Math.min( 0x10000 - from, 0x10000 - dest ) :
+				Math.min( from + 1, dest + 1 );
+			len = Math.min( len, n - done );
+
+			copyBlock( dest, from, len, step );
+			from  = (from + len*step) & 0xffff;
+			dest  = (dest + len*step) & 0xffff;
+			done += len;
+		}
+		count = (count - n) & 0xffff;
+
+		REFRESH( 2*n - 2 );
+		DE( dest );
+		HL( from );
+		BC( count );
+		setH( false );
+		setN( false );
+		setPV( count != 0 );
+
+		if ( count != 0 ) {
+			PC( (PC()-2)&0xffff );
+			return ( 21*n );
+		}
+		return ( 21*n - 5 );
+	}
+
+	/** How many bytes a copy from dest in the direction of step writes
+	 *  before it reaches addr, or any other address the same page is at.
+	 */
+	private final int distance( int addr, int dest, int step ) {
+		byte page[] = pages[ addr >> 14 ];
+		int  d      = 0xffff;
+		for ( int p = 0; p < 4; p++ ) {
+			if ( pages[ p ] == page ) {
+				int alias = (p << 14) | (addr & 0x3fff);
+				d = Math.min( d, ((alias - dest) * step) & 0xffff );
+			}
+		}
+		return d;
+	}
+
+	/** Copy len bytes one at a time as LDIR (step 1) or LDDR (step -1)
+	 *  would, neither range wraps around. Memory systems may do it in bulk
+	 *  where the result is the same.
+	 */
+	protected void copyBlock( int dest, int from, int len, int step ) {
+		for ( int i = 0; i < len; i++ ) {
+			pokeb( dest, peekb( from ) );
+			dest += step;
+			from += step;
+		}
+	}
+
 	private final int execute_cb() {
 		REFRESH( 1 );
 
-		switch ( nxtpcb() ) {
+		int op = nxtpcb();
+		switch ( op >> 6 ) {
+		case 0: return execute_cb_rot( op );
+		case 1: return execute_cb_bit( op );
+		case 2: return execute_cb_res( op );
+		case 3: return execute_cb_set( op );
+		}
+
+		return 0;
+	}
+
+	/** CB 00-3F: rotates and shifts */
+	private final int execute_cb_rot( int op ) {
+
+		switch ( op ) {
 
 		case   0:	/* RLC B */
 		{ B( rlc( B() ) ); return ( 8 ); }
@@ -2108,6 +2842,16 @@ public class Z80 extends Object {
 		case  63:	/* SRL A */
 		{ A( srl( A() ) ); return ( 8 ); }
 
+		} // end switch
+
+		return 0;
+	}
+
+	/** CB 40-7F: BIT b,r */
+	private final int execute_cb_bit( int op ) {
+
+		switch ( op ) {
+
 		case  64:	/* BIT 0,B */
 		{ bit( 0x01, B() ); return ( 8 ); }
 		case  65:	/* BIT 0,C */
@@ -2244,6 +2988,16 @@ public class Z80 extends Object {
 		case 127:	/* BIT 7,A */
 		{ bit( 0x80, A() ); return ( 8 ); }
 
+		} // end switch
+
+		return 0;
+	}
+
+	/** CB 80-BF: RES b,r */
+	private final int execute_cb_res( int op ) {
+
+		switch ( op ) {
+
 		case 128:	/* RES 0,B */
 		{ B( res( 0x01, B() ) ); return ( 8 ); }
 		case 129:	/* RES 0,C */
@@ -2412,6 +3166,16 @@ public class Z80 extends Object {
 		case 191:	/* RES 7,A */
 		{ A( res( 0x80, A() ) ); return ( 8 ); }
 
+		} // end switch
+
+		return 0;
+	}
+
+	/** CB C0-FF: SET b,r */
+	private final int execute_cb_set( int op ) {
+
+		switch ( op ) {
+
 		case 192:	/* SET 0,B */
 		{ B( set( 0x01, B() ) ); return ( 8 ); }
 		case 193:	/* SET 0,C */
@@ -3014,7 +3778,18 @@ public class Z80 extends Object {
 	}
 
 
-	private final void execute_id_cb(int op, int z) {
+	private final void execute_id_cb( int op, int z ) {
+
+		switch ( op >> 6 ) {
+		case 0: execute_id_cb_rot( op, z ); return;
+		case 1: execute_id_cb_bit( op, z ); return;
+		case 2: execute_id_cb_res( op, z ); return;
+		case 3: execute_id_cb_set( op, z ); return;
+		}
+	}
+
+	/** DDCB/FDCB 00-3F: rotates and shifts of (ID+d) */
+	private final void execute_id_cb_rot( int op, int z ) {
 
 		switch ( op ) {
 
@@ -3154,6 +3929,14 @@ public class Z80 extends Object {
 		case  63:	/* SRL A */
 		{ A( op = srl( peekb( z ) ) ); pokeb( z, op ); return; }
 
+		} // end switch
+	}
+
+	/** DDCB/FDCB 40-7F: BIT b,(ID+d) */
+	private final void execute_id_cb_bit( int op, int z ) {
+
+		switch ( op ) {
+
 		case  64:	/* BIT 0,B */
 		case  65:	/* BIT 0,B */
 		case  66:	/* BIT 0,B */
@@ -3234,6 +4017,14 @@ public class Z80 extends Object {
 		case 127:	/* BIT 7,B */
 		{ bit( 0x80, peekb( z ) ); return; }
 
+		} // end switch
+	}
+
+	/** DDCB/FDCB 80-BF: RES b,(ID+d) */
+	private final void execute_id_cb_res( int op, int z ) {
+
+		switch ( op ) {
+
 		case 128:	/* RES 0,B */
 		{ B( op = res( 0x01, peekb( z ) ) ); pokeb( z, op ); return; }
 		case 129:	/* RES 0,C */
@@ -3370,6 +4161,14 @@ public class Z80 extends Object {
 		case 191:	/* RES 7,A */
 		{ A( op = res( 0x80, peekb( z ) ) ); pokeb( z, op ); return; }
 
+		} // end switch
+	}
+
+	/** DDCB/FDCB C0-FF: SET b,(ID+d) */
+	private final void execute_id_cb_set( int op, int z ) {
+
+		switch ( op ) {
+
 		case 192:	/* SET 0,B */
 		{ B( op = set( 0x01, peekb( z ) ) ); pokeb( z, op ); return; }
 		case 193:	/* SET 0,C */
@@ -3513,13 +4312,7 @@ public class Z80 extends Object {
 	private final int in_bc() {
 		int        ans = inb( BC() );
 
-		setZ( ans == 0 );
-		setS( (ans & F_S)!=0 );
-		set3( (ans & F_3)!=0 );
-		set5( (ans & F_5)!=0 );
-		setPV( parity[ ans ] );
-		setN( false );
-		setH( false );
+		F( SZ53P[ ans ] | carry() );
 
 		return ans;
 	}
@@ -3529,20 +4322,11 @@ public class Z80 extends Object {
 	adc_a( int b )
 	{
 		int a    = A();
-		int c    = Cset() ? 1 : 0;
-		int wans = a + b + c;
-		int ans  = wans & 0xff;
-
-		setS( (ans & F_S)  != 0 );
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setZ( (ans)        == 0 );
-		setC( (wans&0x100) != 0 );
-		setPV( ((a ^ ~b) & (a ^ ans) & 0x80) != 0 );
-		setH(  (((a & 0x0f) + (b & 0x0f) + c) & F_H) != 0 );
-		setN( false );
+		int wans = a + b + carry();
 
-		A( ans );
+		flags( L_ADD, a, b, wans );
+
+		A( wans & 0xff );
 	}
 
 	/** Add - alters all flags (CHECKED) */
@@ -3551,18 +4335,10 @@ public class Z80 extends Object {
 	{
 		int a    = A();
 		int wans = a + b;
-		int ans  = wans & 0xff;
-
-		setS( (ans & F_S)  != 0 );
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setZ( (ans)        == 0 );
-		setC( (wans&0x100) != 0 );
-		setPV( ((a ^ ~b) & (a ^ ans) & 0x80) != 0 );
-		setH(  (((a & 0x0f) + (b & 0x0f)) & F_H) != 0 );
-		setN( false );
 
-		A( ans );
+		flags( L_ADD, a, b, wans );
+
+		A( wans & 0xff );
 	}
 
 	/** Subtract with carry - alters all flags (CHECKED) */
@@ -3570,20 +4346,11 @@ public class Z80 extends Object {
 	sbc_a( int b )
 	{
 		int a    = A();
-		int c    = Cset() ? 1 : 0;
-		int wans = a - b - c;
-		int ans  = wans & 0xff;
-
-		setS( (ans & F_S)  != 0 );
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setZ( (ans)        == 0 );
-		setC( (wans&0x100) != 0 );
-		setPV( ((a ^ b) & (a ^ ans) & 0x80) != 0 );
-		setH(  (((a & 0x0f) - (b & 0x0f) - c) & F_H) != 0 );
-		setN( true );
+		int wans = a - b - carry();
 
-		A( ans );
+		flags( L_SUB, a, b, wans );
+
+		A( wans & 0xff );
 	}
 
 	/** Subtract - alters all flags (CHECKED) */
@@ -3592,18 +4359,10 @@ public class Z80 extends Object {
 	{
 		int a    = A();
 		int wans = a - b;
-		int ans  = wans & 0xff;
 
-		setS( (ans & F_S)  != 0 );
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setZ( (ans)        == 0 );
-		setC( (wans&0x100) != 0 );
-		setPV( ((a ^ b) & (a ^ ans) & 0x80) != 0 );
-		setH(  (((a & 0x0f) - (b & 0x0f)) & F_H) != 0 );
-		setN( true );
+		flags( L_SUB, a, b, wans );
 
-		A( ans );
+		A( wans & 0xff );
 	}
 
 	/** Rotate Left - alters H N C 3 5 flags (CHECKED) */
@@ -3611,20 +4370,11 @@ public class Z80 extends Object {
 	rlc_a()
 	{
 		int     ans = A();
-		boolean c   = (ans & 0x80) != 0;
+		int     c   = ans >> 7;
 
-		if ( c ) {
-			ans = (ans << 1)|0x01;
-		} else {
-			ans <<= 1;
-		}
-		ans &= 0xff;
+		ans = ((ans << 1) | c) & 0xff;
 
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setN( false );
-		setH( false );
-		setC( c );
+		F( (F() & (F_S | F_Z | F_PV)) | (ans & (F_5 | F_3)) | c );
 
 		A( ans );
 	}
@@ -3634,19 +4384,11 @@ public class Z80 extends Object {
 	rrc_a()
 	{
 		int     ans = A();
-		boolean c   = (ans & 0x01) != 0;
+		int     c   = ans & 0x01;
 
-		if ( c ) {
-			ans = (ans >> 1)|0x80;
-		} else {
-			ans >>= 1;
-		}
+		ans = (ans >> 1) | (c << 7);
 
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setN( false );
-		setH( false );
-		setC( c );
+		F( (F() & (F_S | F_Z | F_PV)) | (ans & (F_5 | F_3)) | c );
 
 		A( ans );
 	}
@@ -3656,21 +4398,11 @@ public class Z80 extends Object {
 	rl_a()
 	{
 		int     ans = A();
-		boolean c   = (ans & 0x80) != 0;
+		int     c   = ans >> 7;
 
-		if ( Cset() ) {
-			ans = (ans << 1) | 0x01;
-		} else {
-			ans <<= 1;
-		}
-
-		ans &= 0xff;
+		ans = ((ans << 1) | carry()) & 0xff;
 
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setN( false );
-		setH( false );
-		setC( c );
+		F( (F() & (F_S | F_Z | F_PV)) | (ans & (F_5 | F_3)) | c );
 
 		A( ans );
 	}
@@ -3680,19 +4412,11 @@ public class Z80 extends Object {
 	rr_a()
 	{
 		int     ans = A();
-		boolean c   = (ans & 0x01) != 0;
+		int     c   = ans & 0x01;
 
-		if ( Cset() ) {
-			ans = (ans >> 1) | 0x80;
-		} else {
-			ans >>= 1;
-		}
+		ans = (ans >> 1) | (carry() << 7);
 
-		set3( (ans & F_3)  != 0 );
-		set5( (ans & F_5)  != 0 );
-		setN( false );
-		setH( false );
-		setC( c );
+		F( (F() & (F_S | F_Z | F_PV)) | (ans & (F_5 | F_3)) | c );
 
 		A( ans );
 	}
@@ -3702,17 +4426,8 @@ public class Z80 extends Object {
 	cp_a( int b )
 	{
 		int a    = A();
-		int wans = a - b;
-		int ans  = wans & 0xff;
 
-		setS( (ans & F_S) != 0 );
-		set3( (b & F_3)   != 0 );
-		set5( (b & F_5)   != 0 );
-		setN( true );
-		setZ( ans == 0 );
-		setC( (wans & 0x100)!=0 );
-		setH( (((a & 0x0f) - (b & 0x0f)) & F_H) != 0 );
-		setPV( ((a ^ b) & (a ^ ans) & 0x80) != 0 );
+		flags( L_CP, a, b, a - b );
 	}
 
 	/** Bitwise and - alters all flags (CHECKED) */
@@ -3721,14 +4436,7 @@ public class Z80 extends Object {
 	{
 		int ans = A() & b;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setH( true );
-		setPV( parity[ ans ] );
-		setZ( ans == 0 );
-		setN( false );
-		setC( false );
+		flags( L_AND, 0, 0, ans );
 
 		A( ans );
 	}
@@ -3739,14 +4447,7 @@ public class Z80 extends Object {
 	{
 		int ans = A() | b;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setH( false );
-		setPV( parity[ ans ] );
-		setZ( ans == 0 );
-		setN( false );
-		setC( false );
+		flags( L_OR, 0, 0, ans );
 
 		A( ans );
 	}
@@ -3757,14 +4458,7 @@ public class Z80 extends Object {
 	{
 		int ans = (A() ^ b) & 0xff;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setH( false );
-		setPV( parity[ ans ] );
-		setZ( ans == 0 );
-		setN( false );
-		setC( false );    
+		flags( L_OR, 0, 0, ans );
 
 		A( ans );
 	}
@@ -3785,10 +4479,7 @@ public class Z80 extends Object {
 	{
 		int ans = A() ^ 0xff;
 
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setH( true );    
-		setN( true );    
+		F( (F() & (F_S | F_Z | F_PV | F_C)) | (ans & (F_5 | F_3)) | F_H | F_N );
 
 		A( ans );
 	}
@@ -3799,18 +4490,18 @@ public class Z80 extends Object {
 	{
 		int        ans = A();
 		int        incr = 0;
-		boolean    carry = Cset();
+		int        carry = carry();
 
-		if ((Hset()) || ((ans & 0x0f) > 0x09)) {
+		if (((F() & F_H) != 0) || ((ans & 0x0f) > 0x09)) {
 			incr |= 0x06;
 		}
-		if (carry || (ans > 0x9f) || ((ans > 0x8f) && ((ans & 0x0f) > 0x09))) {
+		if ((carry != 0) || (ans > 0x9f) || ((ans > 0x8f) && ((ans & 0x0f) > 0x09))) {
 			incr |= 0x60;
 		}
 		if (ans > 0x99) {
-			carry = true;
+			carry = F_C;
 		}
-		if (Nset()) {
+		if ((F() & F_N) != 0) {
 			sub_a(incr);
 		} else {
 			add_a(incr);
@@ -3818,8 +4509,7 @@ public class Z80 extends Object {
 
 		ans = A();
 
-		setC( carry );
-		setPV( parity[ ans ] );
+		F( (F() & ~(F_C | F_PV)) | carry | (SZ53P[ ans ] & F_PV) );
 	}
 
 	/** Load a with i - (NOT CHECKED) */
@@ -3828,13 +4518,7 @@ public class Z80 extends Object {
 	{
 		int ans = I();
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( ans == 0 );
-		setPV( IFF2() );
-		setH( false );    
-		setN( false );    
+		F( SZ53[ ans ] | (IFF2() ? F_PV : 0) | carry() );
 
 		A( ans );
 	}
@@ -3845,13 +4529,7 @@ public class Z80 extends Object {
 	{
 		int ans = R();
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( ans == 0 );
-		setPV( IFF2() );
-		setH( false );
-		setN( false );
+		F( SZ53[ ans ] | (IFF2() ? F_PV : 0) | carry() );
 
 		A( ans );
 	}
@@ -3866,15 +4544,9 @@ public class Z80 extends Object {
 
 		t   = (t >> 4) | (ans << 4);
 		ans = (ans & 0xf0) | (q & 0x0f);
-		pokeb( HL(), t );
+		pokeb( HL(), (t & 0xff) );
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( ans == 0 );
-		setPV( IFF2() );
-		setH( false );    
-		setN( false );        
+		F( SZ53[ ans ] | (IFF2() ? F_PV : 0) | carry() );
 
 		A( ans );
 	}
@@ -3891,13 +4563,7 @@ public class Z80 extends Object {
 		ans = (ans & 0xf0) | (q >> 4);
 		pokeb( HL(), (t & 0xff) );
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( ans == 0 );
-		setPV( IFF2() );
-		setH( false );    
-		setN( false );            
+		F( SZ53[ ans ] | (IFF2() ? F_PV : 0) | carry() );
 
 		A( ans );
 	}
@@ -3906,15 +4572,10 @@ public class Z80 extends Object {
 	private final void
 	bit( int b, int r )
 	{
-		boolean    bitSet = ((r & b) != 0);
+		int        bitSet = r & b;
 
-		setN( false );
-		setH( true );
-		set3( (r & F_3) != 0 );
-		set5( (r & F_5) != 0 );
-		setS( (b == F_S) ? bitSet : false );
-		setZ(  !bitSet );
-		setPV( !bitSet );
+		F( carry() | F_H | (r & (F_5 | F_3)) | (bitSet & F_S) |
+			((bitSet == 0) ? (F_Z | F_PV) : 0) );
 	}
 
 	/** Set carry flag - alters N H 3 5 C flags (CHECKED) */
@@ -3923,11 +4584,7 @@ public class Z80 extends Object {
 	{
 		int        ans = A();
 
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setN( false );
-		setH( false );
-		setC( true );
+		F( (F() & (F_S | F_Z | F_PV)) | (ans & (F_5 | F_3)) | F_C );
 	}
 
 	/** Complement carry flag - alters N 3 5 C flags (CHECKED) */
@@ -3936,33 +4593,18 @@ public class Z80 extends Object {
 	{
 		int        ans = A();
 
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setN( false );
-		setC( Cset() ? false : true );
+		F( ((F() & (F_S | F_Z | F_PV | F_H | F_C)) | (ans & (F_5 | F_3))) ^ F_C );
 	}
 
 	/** Rotate left - alters all flags (CHECKED) */
 	private final int
 	rlc( int ans )
 	{
-		boolean c = (ans & 0x80) != 0;
+		int c = ans >> 7;
 
-		if ( c ) {
-			ans = (ans << 1)|0x01;
-		} else {
-			ans <<= 1;
-		}
-		ans &= 0xff;
+		ans = ((ans << 1) | c) & 0xff;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );    
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -3971,22 +4613,11 @@ public class Z80 extends Object {
 	private final int
 	rrc( int ans )
 	{
-		boolean c = (ans & 0x01) != 0;
+		int c = ans & 0x01;
 
-		if ( c ) {
-			ans = (ans >> 1)|0x80;
-		} else {
-			ans >>= 1;
-		}
+		ans = (ans >> 1) | (c << 7);
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );    
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -3995,23 +4626,11 @@ public class Z80 extends Object {
 	private final int
 	rl( int ans )
 	{
-		boolean c = (ans & 0x80) != 0;
+		int c = ans >> 7;
 
-		if ( Cset() ) {
-			ans = (ans << 1) | 0x01;
-		} else {
-			ans <<= 1;
-		}
-		ans &= 0xff;
+		ans = ((ans << 1) | carry()) & 0xff;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );    
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -4020,22 +4639,11 @@ public class Z80 extends Object {
 	private final int
 	rr( int ans )
 	{
-		boolean c = (ans & 0x01) != 0;
+		int c = ans & 0x01;
 
-		if ( Cset() ) {
-			ans = (ans >> 1) | 0x80;
-		} else {
-			ans >>= 1;
-		}
+		ans = (ans >> 1) | (carry() << 7);
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );    
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -4044,17 +4652,10 @@ public class Z80 extends Object {
 	private final int
 	sla( int ans )
 	{
-		boolean c = (ans & 0x80) != 0;
+		int c = ans >> 7;
 		ans = (ans << 1) & 0xff;
-    
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );
+
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -4063,17 +4664,10 @@ public class Z80 extends Object {
 	private final int
 	sls( int ans )
 	{
-		boolean c = (ans & 0x80) != 0;
+		int c = ans >> 7;
 		ans = ((ans << 1) | 0x01) & 0xff;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
@@ -4082,86 +4676,50 @@ public class Z80 extends Object {
 	private final int
 	sra( int ans )
 	{
-		boolean c = (ans & 0x01) != 0;
+		int c = ans & 0x01;
 		ans = (ans >> 1) | (ans & 0x80);
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
 
 	/** Shift Right Logically - alters all flags (CHECKED) */
 	private final int srl( int ans ) {
-		boolean c = (ans & 0x01) != 0;
+		int c = ans & 0x01;
 		ans = ans >> 1;
 
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( parity[ ans ] );
-		setH( false );
-		setN( false );
-		setC( c );
+		F( SZ53P[ ans ] | c );
 
 		return(ans);
 	}
 
 	/** Decrement - alters all but C flag (CHECKED) */
 	private final int dec8( int ans ) {
-		boolean    pv = (ans == 0x80);
-		boolean    h  = (((ans & 0x0f) - 1) & F_H) != 0;
-		ans = (ans - 1) & 0xff;
-
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( pv );
-		setH( h );
-		setN( true );
+		int        t = (ans - 1) & 0xff;
 
-		return(ans);
+		flags( L_DEC, ans, carry(), t );
+
+		return(t);
 	}
 
 	/** Increment - alters all but C flag (CHECKED) */
 	private final int inc8( int ans ) {
-		boolean    pv = (ans == 0x7f);
-		boolean    h  = (((ans & 0x0f) + 1) & F_H) != 0;
-		ans = (ans + 1) & 0xff;
-
-		setS( (ans & F_S) != 0 );
-		set3( (ans & F_3) != 0 );
-		set5( (ans & F_5) != 0 );
-		setZ( (ans) == 0 );
-		setPV( pv );
-		setH( h );
-		setN( false );
+		int        t = (ans + 1) & 0xff;
 
-		return(ans);
+		flags( L_INC, ans, carry(), t );
+
+		return(t);
 	}
 
 	/** Add with carry - (NOT CHECKED) */
 	private final int adc16( int a, int b ) {
-		int c    = Cset() ? 1 : 0;
+		int c    = carry();
 		int lans = a + b + c;
 		int ans  = lans & 0xffff;
 
-		setS( (ans & (F_S<<8)) != 0 );
-		set3( (ans & (F_3<<8)) != 0 );
-		set5( (ans & (F_5<<8)) != 0 );
-		setZ( (ans) == 0 );
-		setC( (lans & 0x10000)!=0 );
-		setPV( ((a ^ ~b) & (a ^ ans) & 0x8000)!=0 );
-		setH( (((a & 0x0fff) + (b & 0x0fff) + c) & 0x1000)!=0 );
-		setN( false );
+		F( (SZ53[ ans >> 8 ] & ~F_Z) | ((ans == 0) ? F_Z : 0) | ((lans >> 16) & F_C) |
+			(((a ^ b ^ ans) >> 8) & F_H) | (((a ^ ~b) & (a ^ ans) & 0x8000) >> 13) );
 
 		return(ans);
 	}
@@ -4171,29 +4729,20 @@ public class Z80 extends Object {
 		int lans = a + b;
 		int ans  = lans & 0xffff;
 
-		set3( (ans & (F_3<<8)) != 0 );
-		set5( (ans & (F_5<<8)) != 0 );
-		setC( (lans & 0x10000)!=0 );
-		setH( (((a & 0x0fff) + (b & 0x0fff)) & 0x1000)!=0 );
-		setN( false );
+		F( (F() & (F_S | F_Z | F_PV)) | ((ans >> 8) & (F_5 | F_3)) | ((lans >> 16) & F_C) |
+			(((a ^ b ^ ans) >> 8) & F_H) );
 
 		return(ans);
 	}
 
 	/** Add with carry - (NOT CHECKED) */
 	private final int sbc16( int a, int b ) {
-		int c    = Cset() ? 1 : 0;
+		int c    = carry();
 		int lans = a - b - c;
 		int ans  = lans & 0xffff;
 
-		setS( (ans & (F_S<<8)) != 0 );
-		set3( (ans & (F_3<<8)) != 0 );
-		set5( (ans & (F_5<<8)) != 0 );
-		setZ( (ans) == 0 );
-		setC( (lans & 0x10000)!=0 );
-		setPV( ((a ^ b) & (a ^ ans) & 0x8000)!=0 );
-		setH( (((a & 0x0fff) - (b & 0x0fff) - c) & 0x1000)!=0 );
-		setN( true );
+		F( (SZ53[ ans >> 8 ] & ~F_Z) | ((ans == 0) ? F_Z : 0) | ((lans >> 16) & F_C) |
+			(((a ^ b ^ ans) >> 8) & F_H) | (((a ^ b) & (a ^ ans) & 0x8000) >> 13) | F_N );
 
 		return(ans);
 	}
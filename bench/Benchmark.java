@@ -0,0 +1,282 @@
+/*
+ * @(#)Benchmark.java
+ */
+import java.io.*;
+import java.util.zip.CRC32;
+
+/**
+ * <p>The Benchmark class measures the throughput of the Z80 interpreter core
+ * in isolation from the AWT front end. Each workload prepares a fresh machine
+ * and runs it for a fixed number of frames worth of T-states, the elapsed host time
+ * is converted into emulated MHz and nanoseconds per instruction.</p>
+ *
+ * <p>Instructions are counted as opcode fetches using the refresh register,
+ * so a prefixed instruction counts once per prefix byte. The checksum column
+ * hashes memory and registers at the end of the run and must not change
+ * between engines unless the emulation itself is meant to change.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . Benchmark [-rom file] [-snapshot file] [-frames n] [-warmup n] [-iterations n] [workload...]
+ * </pre>
+ * The available workloads are <b>rom</b>, <b>ldir</b>, <b>djnz</b>, <b>index</b>
+ * and <b>exolon</b>, all of them are run when none is given. The exolon workload
+ * runs a game snapshot on the headless SpectrumMachine, so it includes the
+ * screen and interrupt handling as well as the core.</p>
+ *
+ * @see Z80
+ * @see SpectrumMachine
+ */
+
+public class Benchmark {
+	private static String  romFile    = "archive/applet-fixed/spectrum.rom";
+	private static String  snapFile   = "archive/applet-fixed/exolon.z80";
+	private static int     frames     = 250;  // 5 seconds of Spectrum time
+	private static int     warmup     = 5;
+	private static int     iterations = 10;
+
+	private static byte    rom[]      = null;
+
+	public static void main( String args[] ) throws Exception {
+		int i = 0;
+
+		for ( ; (i < args.length) && args[i].startsWith( "-" ); i++ ) {
+			if ( args[i].equals( "-rom" ) ) {
+				romFile = args[++i];
+			}
+			else
+			if ( args[i].equals( "-snapshot" ) ) {
+				snapFile = args[++i];
+			}
+			else
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-warmup" ) ) {
+				warmup = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-iterations" ) ) {
+				iterations = Integer.parseInt( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+
+		String names[] = { "rom", "ldir", "djnz", "index", "exolon" };
+		if ( i < args.length ) {
+			names = new String[ args.length - i ];
+			System.arraycopy( args, i, names, 0, names.length );
+		}
+
+		System.out.println( "workload        MHz   ns/instr   Minstr/s   checksum" );
+		for ( int j = 0; j < names.length; j++ ) {
+			run( workload( names[j] ) );
+		}
+	}
+
+	/** Look up a workload by name. */
+	private static Workload workload( String name ) throws Exception {
+		if ( name.equals( "rom" ) ) {
+			return new Workload( name ) {
+				void setUp( BenchZ80 z80 ) throws Exception {
+					byte romImage[] = rom();
+					System.arraycopy( romImage, 0, z80.pages[ 0 ], 0, romImage.length );
+					z80.reset();
+				}
+			};
+		}
+		if ( name.equals( "ldir" ) ) {
+			return new Program( name, new int[] {
+				0xf3,                   // DI
+				0x31, 0x00, 0x80,       // LD SP,8000h
+				0x21, 0x00, 0x90,       // LD HL,9000h
+				0x11, 0x00, 0xa0,       // LD DE,A000h
+				0x01, 0x00, 0x10,       // LD BC,1000h
+				0xed, 0xb0,             // LDIR
+				0x18, 0xf3,             // JR 8004h
+			} );
+		}
+		if ( name.equals( "djnz" ) ) {
+			return new Program( name, new int[] {
+				0xf3,                   // DI
+				0x06, 0x00,             // LD B,0
+				0x10, 0xfe,             // DJNZ 8003h
+				0x0c,                   // INC C
+				0x18, 0xf9,             // JR 8001h
+			} );
+		}
+		if ( name.equals( "index" ) ) {
+			return new Program( name, new int[] {
+				0xf3,                   // DI
+				0xdd, 0x21, 0x00, 0x90, // LD IX,9000h
+				0xfd, 0x21, 0x00, 0xa0, // LD IY,A000h
+				0x06, 0x00,             // LD B,0
+				0xdd, 0x7e, 0x00,       // LD A,(IX+0)
+				0xdd, 0x86, 0x01,       // ADD A,(IX+1)
+				0xfd, 0x77, 0x00,       // LD (IY+0),A
+				0xfd, 0xcb, 0x00, 0x06, // RLC (IY+0)
+				0xdd, 0xcb, 0x02, 0x46, // BIT 0,(IX+2)
+				0xdd, 0x23,             // INC IX
+				0xfd, 0x23,             // INC IY
+				0x10, 0xe9,             // DJNZ 800Bh
+				0x18, 0xdd,             // JR 8001h
+			} );
+		}
+		if ( name.equals( "exolon" ) ) {
+			return new Workload( name ) {
+				Z80 machine() throws Exception {
+					SpectrumMachine spectrum = new SpectrumMachine();
+					try ( InputStream is = new FileInputStream( romFile ) ) {
+						spectrum.loadROM( romFile, is );
+					}
+
+					File snap = new File( snapFile );
+					try ( InputStream is = new FileInputStream( snap ) ) {
+						spectrum.loadSnapshot( snapFile, is, (int) snap.length() );
+					}
+					return spectrum;
+				}
+			};
+		}
+		throw new Exception( "Unknown workload " + name );
+	}
+
+	/** Run the warmup and measured iterations of a workload and print the results. */
+	private static void run( Workload w ) throws Exception {
+		for ( int i = 0; i < warmup; i++ ) {
+			w.iteration();
+		}
+
+		long ns = 0, tstates = 0, instructions = 0;
+		for ( int i = 0; i < iterations; i++ ) {
+			w.iteration();
+			ns           += w.ns;
+			tstates      += w.tstates;
+			instructions += w.instructions;
+		}
+
+		System.out.println(
+			w.name + pad( "", 10 - w.name.length() ) +
+			pad( format( tstates * 1000.0 / ns ), 11 ) +
+			pad( format( (double) ns / instructions ), 11 ) +
+			pad( format( instructions * 1000.0 / ns ), 11 ) +
+			"   " + Long.toHexString( 0x100000000L | (w.checksum & 0xffffffffL) ).substring( 1 ) );
+	}
+
+	private static String format( double d ) {
+		return String.valueOf( Math.round( d * 100 ) / 100.0 );
+	}
+
+	private static String pad( String s, int width ) {
+		while ( s.length() < width ) {
+			s = " " + s;
+		}
+		return s;
+	}
+
+	/** The ROM image, read once. */
+	private static byte[] rom() throws Exception {
+		if ( rom == null ) {
+			byte image[] = new byte[ 16384 ];
+			try ( DataInputStream is = new DataInputStream( new FileInputStream( romFile ) ) ) {
+				is.readFully( image );
+			}
+			rom = image;
+		}
+		return rom;
+	}
+
+
+	/** A Z80 with a write protected ROM. */
+	static class BenchZ80 extends Z80 {
+		BenchZ80() {
+			// Spectrum runs at 3.5Mhz
+			super( 3.5 );
+		}
+
+		public void pokeb( int addr, int newByte ) {
+			if ( addr >= 16384 ) {
+				pages[ addr >> 14 ][ addr & 0x3fff ] = (byte) newByte;
+			}
+		}
+	}
+
+
+	/** Hash of memory and registers. */
+	static int checksum( Z80 z80 ) {
+		CRC32 crc = new CRC32();
+		for ( int p = 0; p < 4; p++ ) {
+			crc.update( z80.pages[ p ], 0, 16384 );
+		}
+		int regs[] = {
+			z80.AF(), z80.BC(), z80.DE(), z80.HL(), z80.IX(), z80.IY(),
+			z80.SP(), z80.PC(), z80.R(), z80.I(),
+			z80._AF_, z80._BC_, z80._DE_, z80._HL_
+		};
+		for ( int i = 0; i < regs.length; i++ ) {
+			crc.update( regs[ i ] );
+			crc.update( regs[ i ] >> 8 );
+		}
+		return (int) crc.getValue();
+	}
+
+
+	/** A named setup of a machine to be measured. */
+	static abstract class Workload {
+		final String name;
+
+		long ns = 0, tstates = 0, instructions = 0;
+		int  checksum = 0;
+
+		Workload( String _name ) {
+			name = _name;
+		}
+
+		/** A fresh machine ready to run, by default a BenchZ80 prepared by setUp. */
+		Z80 machine() throws Exception {
+			BenchZ80 z80 = new BenchZ80();
+			setUp( z80 );
+			return z80;
+		}
+
+		void setUp( BenchZ80 z80 ) throws Exception {
+		}
+
+		void iteration() throws Exception {
+			Z80 z80 = machine();
+
+			int  r     = z80._R;
+			long start = System.nanoTime();
+			tstates = z80.runTStates( (long) frames * z80.tstatesPerInterrupt );
+			ns = System.nanoTime() - start;
+
+			instructions = z80._R - r;
+			checksum     = checksum( z80 );
+		}
+	}
+
+
+	/** A workload which runs a small program at 8000h with interrupts disabled. */
+	static class Program extends Workload {
+		final int code[];
+
+		Program( String _name, int _code[] ) {
+			super( _name );
+			code = _code;
+		}
+
+		void setUp( BenchZ80 z80 ) {
+			// Something other than zeroes for the arithmetic
+			for ( int i = 0x9000; i < 0x9200; i++ ) {
+				z80.pokeb( i, i * 7 );
+			}
+			for ( int i = 0; i < code.length; i++ ) {
+				z80.pokeb( 0x8000 + i, code[ i ] );
+			}
+			z80.PC( 0x8000 );
+		}
+	}
+}
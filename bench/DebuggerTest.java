@@ -0,0 +1,89 @@
+/*
+ * @(#)DebuggerTest.java
+ */
+import java.util.Vector;
+
+/**
+ * <p>The DebuggerTest class checks the watchpoints of Debugger. A write of
+ * the value already there has to stop the machine, in plain RAM and in the
+ * screen, naming the instruction which wrote; a write elsewhere on a watched
+ * page must not. The watchpoint's taps have to stay on top when the page is
+ * mapped to something else, and clearing the watchpoints has to leave the
+ * memory map as it was.</p>
+ *
+ * <p>Every failed check is printed and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . DebuggerTest
+ * </pre>
+ *
+ * @see Debugger#watch
+ */
+
+public class DebuggerTest {
+	private static int failed = 0;
+
+	/** LD A,0; LD ($6000),A; LD ($6001),A; LD HL,$4000; LD (HL),0; JR $ */
+	private static final int CODE[] = {
+		0x3e, 0x00, 0x32, 0x00, 0x60, 0x32, 0x01, 0x60, 0x21, 0x00, 0x40, 0x36, 0x00, 0x18, 0xfe
+	};
+
+	public static void main( String args[] ) throws Exception {
+		SpectrumMachine m = new SpectrumMachine();
+		for ( int i = 0; i < CODE.length; i++ ) {
+			m.pokeb( 0x8000 + i, CODE[ i ] );
+		}
+		m.PC( 0x8000 );
+		m.SP( 0x8000 );
+
+		final Vector<String> reasons = new Vector<String>();
+		Debugger d = new Debugger();
+		d.listener = ( debugger, z80 ) -> {
+			reasons.add( debugger.reason() );
+			debugger.resume();
+		};
+		d.watch( m, 0x6000, 1 );
+		d.watch( m, 0x4000, 1 );
+		check( "screen still mapped under the tap", m.handlerAt( 0x4000 ) == SpectrumMachine.SCREEN );
+		check( "RAM still mapped under the tap", m.handlerAt( 0x6000 ) == null );
+
+		m.debugger = d;
+		m.runTStates( 200 );
+		check( "stops " + reasons, reasons.equals( java.util.Arrays.asList(
+			"write to $6000 by $8002", "write to $4000 by $800B" ) ) );
+		check( "memory written", (m.peek( 0x6000 ) == 0) && (m.peek( 0x6001 ) == 0) );
+
+		// A page mapped over a tap goes under it
+		m.debugger = null;
+		m.map( 0x6000, 256, SpectrumMachine.ROM );
+		check( "ROM mapped under the tap", m.handlerAt( 0x6000 ) == SpectrumMachine.ROM );
+		m.pokeb( 0x6000, 0x55 );
+		check( "write to ROM through the tap dropped", m.peek( 0x6000 ) == 0 );
+		m.map( 0x6000, 256, null );
+
+		d.clearWatch( 0x6000 );
+		d.clearWatch( 0x4000 );
+		check( "RAM after clearing", m.handlerAt( 0x6000 ) == null );
+		check( "screen after clearing", m.handlerAt( 0x4000 ) == SpectrumMachine.SCREEN );
+
+		reasons.clear();
+		m.debugger = d;
+		m.PC( 0x8000 );
+		m.runTStates( 200 );
+		check( "no stops after clearing " + reasons, reasons.isEmpty() );
+
+		if ( failed != 0 ) {
+			System.out.println( failed + " checks failed" );
+			System.exit( 1 );
+		}
+		System.out.println( "watchpoints match" );
+	}
+
+	private static void check( String what, boolean ok ) {
+		if ( !ok ) {
+			System.out.println( "failed: " + what );
+			failed++;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * @(#)DiffTest.java
+ */
+import java.util.Random;
+
+/**
+ * <p>The DiffTest class runs the current Z80 core and ReferenceZ80 side by
+ * side on random memory images and compares them frame by frame. Random
+ * bytes make for code which goes everywhere, prefixes, undocumented
+ * opcodes, block instructions and interrupt modes included, so any flag or
+ * timing which differs shows up within a few frames.</p>
+ *
+ * <p>After every frame all registers, the T-state counter and the whole
+ * 64K of memory must be the same on both. The first difference is printed
+ * and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . DiffTest [-images n] [-frames n] [-seed n]
+ * </pre>
+ *
+ * @see Z80
+ * @see ReferenceZ80
+ */
+
+public class DiffTest {
+	private static int   images = 200;
+	private static int   frames = 50;
+	private static long  seed   = 1;
+
+	public static void main( String args[] ) throws Exception {
+		for ( int i = 0; i < args.length; i++ ) {
+			if ( args[i].equals( "-images" ) ) {
+				images = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-seed" ) ) {
+				seed = Long.parseLong( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+
+		Random random = new Random( seed );
+		for ( int i = 0; i < images; i++ ) {
+			String diff = run( random );
+			if ( diff != null ) {
+				System.out.println( "image " + i + ": " + diff );
+				System.exit( 1 );
+			}
+		}
+		System.out.println( images + " images of " + frames + " frames match" );
+	}
+
+	/** Run one random image on both cores, returns the first difference or null */
+	private static String run( Random random ) {
+		Z80          z80 = new Z80( 3.5 );
+		ReferenceZ80 ref = new ReferenceZ80( 3.5 );
+
+		for ( int addr = 0; addr < 65536; addr++ ) {
+			int b = random.nextInt( 256 );
+			z80.pokeb( addr, b );
+			ref.pokeb( addr, b );
+		}
+
+		int regs[] = new int[ 14 ];
+		for ( int i = 0; i < regs.length; i++ ) {
+			regs[ i ] = random.nextInt( 65536 );
+		}
+		int  im   = random.nextInt( 3 );
+		boolean iff = random.nextBoolean();
+
+		z80.AF( regs[0] );  ref.AF( regs[0] );
+		z80.BC( regs[1] );  ref.BC( regs[1] );
+		z80.DE( regs[2] );  ref.DE( regs[2] );
+		z80.HL( regs[3] );  ref.HL( regs[3] );
+		z80.IX( regs[4] );  ref.IX( regs[4] );
+		z80.IY( regs[5] );  ref.IY( regs[5] );
+		z80.SP( regs[6] );  ref.SP( regs[6] );
+		z80.PC( regs[7] );  ref.PC( regs[7] );
+		z80.I( regs[8] & 0xff );  ref.I( regs[8] & 0xff );
+		z80.R( regs[9] & 0xff );  ref.R( regs[9] & 0xff );
+		z80._AF_ = ref._AF_ = regs[10];
+		z80._BC_ = ref._BC_ = regs[11];
+		z80._DE_ = ref._DE_ = regs[12];
+		z80._HL_ = ref._HL_ = regs[13];
+		z80.IM( im );       ref.IM( im );
+		z80.IFF1( iff );    ref.IFF1( iff );
+		z80.IFF2( iff );    ref.IFF2( iff );
+
+		for ( int f = 0; f < frames; f++ ) {
+			z80.runFrames( 1 );
+			ref.runFrames( 1 );
+
+			String diff = compare( z80, ref );
+			if ( diff != null ) {
+				return "frame " + f + ": " + diff;
+			}
+		}
+		return null;
+	}
+
+	/** The first register or memory byte which differs, or null */
+	private static String compare( Z80 z80, ReferenceZ80 ref ) {
+		String names[] = {
+			"AF", "BC", "DE", "HL", "IX", "IY", "SP", "PC", "R", "I", "IM",
+			"IFF1", "IFF2", "AF'", "BC'", "DE'", "HL'", "tstates"
+		};
+		int a[] = {
+			z80.AF(), z80.BC(), z80.DE(), z80.HL(), z80.IX(), z80.IY(),
+			z80.SP(), z80.PC(), z80.R(), z80.I(), z80.IM(),
+			z80.IFF1() ? 1 : 0, z80.IFF2() ? 1 : 0,
+			z80._AF_, z80._BC_, z80._DE_, z80._HL_, z80.tstates
+		};
+		int b[] = {
+			ref.AF(), ref.BC(), ref.DE(), ref.HL(), ref.IX(), ref.IY(),
+			ref.SP(), ref.PC(), ref.R(), ref.I(), ref.IM(),
+			ref.IFF1() ? 1 : 0, ref.IFF2() ? 1 : 0,
+			ref._AF_, ref._BC_, ref._DE_, ref._HL_, ref.tstates
+		};
+		for ( int i = 0; i < names.length; i++ ) {
+			if ( a[ i ] != b[ i ] ) {
+				return names[ i ] + " " + Integer.toHexString( a[ i ] ) +
+					" expected " + Integer.toHexString( b[ i ] );
+			}
+		}
+
+		for ( int addr = 0; addr < 65536; addr++ ) {
+			if ( z80.peek( addr ) != (ref.mem[ addr ] & 0xff) ) {
+				return "memory at " + Integer.toHexString( addr ) + " " +
+					Integer.toHexString( z80.peek( addr ) ) + " expected " +
+					Integer.toHexString( ref.mem[ addr ] & 0xff );
+			}
+		}
+		return null;
+	}
+}
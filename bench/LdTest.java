@@ -0,0 +1,206 @@
+/*
+ * @(#)LdTest.java
+ */
+import java.util.Random;
+
+/**
+ * <p>The LdTest class checks that LDIR and LDDR done in bulk leave the
+ * machine as copying one byte at a time would. Each random program does a
+ * few block copies with random source, destination and length, over the
+ * ROM, the screen, overlapping itself or its own code, and is run on two
+ * machines: one running a frame's T-states at a time, which copies up to
+ * the interrupt in one go, and one calling step() until it has reached the
+ * same T-state, which does every iteration in a dispatch of its own.</p>
+ *
+ * <p>After every frame the registers, the T-state counter, all of memory
+ * and the painted pixels must be the same on both. Odd numbered programs
+ * run on a Spectrum128 with a random bank paged in at C000, so copies
+ * between the two addresses of bank 5 or 2 are covered too. The first
+ * difference is printed and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . LdTest [-programs n] [-frames n] [-seed n]
+ * </pre>
+ *
+ * @see SpectrumMachine
+ * @see Spectrum128
+ */
+
+public class LdTest {
+	private static int   programs = 300;
+	private static int   frames   = 25;
+	private static long  seed     = 1;
+
+	public static void main( String args[] ) throws Exception {
+		for ( int i = 0; i < args.length; i++ ) {
+			if ( args[i].equals( "-programs" ) ) {
+				programs = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-frames" ) ) {
+				frames = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-seed" ) ) {
+				seed = Long.parseLong( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+
+		Random random = new Random( seed );
+		for ( int i = 0; i < programs; i++ ) {
+			String diff = run( random, (i & 1) != 0 );
+			if ( diff != null ) {
+				System.out.println( "program " + i + ": " + diff );
+				System.exit( 1 );
+			}
+		}
+		System.out.println( programs + " programs of " + frames + " frames match" );
+	}
+
+	/** Run one random program on a bulk and a stepping machine,
+	 *  returns the first difference or null.
+	 */
+	private static String run( Random random, boolean is128 ) {
+		SpectrumMachine bulk = is128 ? new Spectrum128() : new SpectrumMachine();
+		SpectrumMachine step = is128 ? new Spectrum128() : new SpectrumMachine();
+
+		long fill = random.nextLong();
+		load( bulk, new Random( fill ) );
+		load( step, new Random( fill ) );
+
+		int code[] = program( random, is128 );
+		for ( int i = 0; i < code.length; i++ ) {
+			bulk.pokeb( 0x8000 + i, code[ i ] );
+			step.pokeb( 0x8000 + i, code[ i ] );
+		}
+
+		for ( SpectrumMachine m : new SpectrumMachine[] { bulk, step } ) {
+			m.PC( 0x8000 );
+			m.SP( 0x8000 );
+			m.refreshWholeScreen();
+			m.screenPaint();
+		}
+
+		long bulkDone = 0, stepDone = 0;
+		for ( int f = 0; f < frames; f++ ) {
+			bulkDone += bulk.runTStates( bulk.tstatesPerInterrupt );
+			while ( stepDone < bulkDone ) {
+				stepDone += step.step();
+			}
+			bulk.screenPaint();
+			step.screenPaint();
+
+			if ( bulkDone != stepDone ) {
+				return "frame " + f + ": ran " + bulkDone + " T-states, expected " + stepDone;
+			}
+			String diff = compare( bulk, step );
+			if ( diff != null ) {
+				return "frame " + f + ": " + diff;
+			}
+		}
+		return null;
+	}
+
+	/** Random bytes in every bank, the ROMs included */
+	private static void load( SpectrumMachine m, Random random ) {
+		for ( int b = 0; b < m.banks.length; b++ ) {
+			random.nextBytes( m.banks[ b ] );
+			m.changedBank( b );
+		}
+	}
+
+	/** DI, on a 128K a random bank at C000, then one to four block copies
+	 *  and a loop on the spot.
+	 */
+	private static int[] program( Random random, boolean is128 ) {
+		int code[] = new int[ 64 ];
+		int n = 0;
+
+		code[n++] = 0xf3;                                 // DI
+		if ( is128 ) {
+			int bank = random.nextInt( 8 ) | (random.nextInt( 2 ) << 3);
+			code[n++] = 0x01; code[n++] = 0xfd; code[n++] = 0x7f;  // LD BC,7FFDh
+			code[n++] = 0x3e; code[n++] = bank;                    // LD A,n
+			code[n++] = 0xed; code[n++] = 0x79;                    // OUT (C),A
+		}
+
+		for ( int copies = 1 + random.nextInt( 4 ); copies > 0; copies-- ) {
+			int from  = address( random );
+			int dest  = random.nextBoolean() ? address( random ) : (from + random.nextInt( 64 ) - 32) & 0xffff;
+			int count = length( random );
+
+			code[n++] = 0x21; code[n++] = from & 0xff;  code[n++] = from >> 8;   // LD HL,nn
+			code[n++] = 0x11; code[n++] = dest & 0xff;  code[n++] = dest >> 8;   // LD DE,nn
+			code[n++] = 0x01; code[n++] = count & 0xff; code[n++] = count >> 8;  // LD BC,nn
+			code[n++] = 0xed; code[n++] = random.nextBoolean() ? 0xb0 : 0xb8;    // LDIR or LDDR
+		}
+		code[n++] = 0x18; code[n++] = 0xfe;               // JR $
+
+		int program[] = new int[ n ];
+		System.arraycopy( code, 0, program, 0, n );
+		return program;
+	}
+
+	/** Anywhere, but more often the screen and around the program */
+	private static int address( Random random ) {
+		switch ( random.nextInt( 4 ) ) {
+		case 0:  return 0x4000 + random.nextInt( 6912 );
+		case 1:  return 0x7f00 + random.nextInt( 0x200 );
+		default: return random.nextInt( 65536 );
+		}
+	}
+
+	/** Mostly short, sometimes a whole bank or all of memory */
+	private static int length( Random random ) {
+		switch ( random.nextInt( 8 ) ) {
+		case 0:  return 0;
+		case 1:  return random.nextInt( 65536 );
+		case 2:
+		case 3:  return random.nextInt( 16384 );
+		default: return 1 + random.nextInt( 300 );
+		}
+	}
+
+	/** The first register, memory byte or pixel which differs, or null */
+	private static String compare( SpectrumMachine a, SpectrumMachine b ) {
+		String names[] = {
+			"AF", "BC", "DE", "HL", "SP", "PC", "R", "IFF1", "tstates"
+		};
+		int ra[] = {
+			a.AF(), a.BC(), a.DE(), a.HL(), a.SP(), a.PC(), a.R(),
+			a.IFF1() ? 1 : 0, a.tstates
+		};
+		int rb[] = {
+			b.AF(), b.BC(), b.DE(), b.HL(), b.SP(), b.PC(), b.R(),
+			b.IFF1() ? 1 : 0, b.tstates
+		};
+		for ( int i = 0; i < names.length; i++ ) {
+			if ( ra[ i ] != rb[ i ] ) {
+				return names[ i ] + " " + Integer.toHexString( ra[ i ] ) +
+					" expected " + Integer.toHexString( rb[ i ] );
+			}
+		}
+
+		for ( int bank = 0; bank < a.banks.length; bank++ ) {
+			for ( int i = 0; i < 16384; i++ ) {
+				if ( a.banks[ bank ][ i ] != b.banks[ bank ][ i ] ) {
+					return "bank " + bank + " at " + Integer.toHexString( i ) + " " +
+						Integer.toHexString( a.banks[ bank ][ i ] & 0xff ) + " expected " +
+						Integer.toHexString( b.banks[ bank ][ i ] & 0xff );
+				}
+			}
+		}
+
+		for ( int i = 0; i < a.pixels.length; i++ ) {
+			if ( a.pixels[ i ] != b.pixels[ i ] ) {
+				return "pixel " + i + " " + Integer.toHexString( a.pixels[ i ] ) +
+					" expected " + Integer.toHexString( b.pixels[ i ] );
+			}
+		}
+		return null;
+	}
+}
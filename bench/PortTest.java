@@ -0,0 +1,187 @@
+/*
+ * @(#)PortTest.java
+ */
+import java.util.Random;
+
+/**
+ * <p>The PortTest class checks the IO port decoding of SpectrumMachine. The
+ * ULA's keyboard table has to read as the eight address line tests it
+ * replaced, on all 65536 ports over random key matrices. Devices attached
+ * with a mask and value have to be reached on exactly the ports they
+ * decode, the high byte included, devices sharing a port all see writes
+ * and what they read is ANDed, and detaching one leaves the rest as they
+ * were.</p>
+ *
+ * <p>Every failed check is printed and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . PortTest [-matrices n] [-seed n]
+ * </pre>
+ *
+ * @see SpectrumMachine#attach
+ */
+
+public class PortTest {
+	private static int   matrices = 100;
+	private static long  seed     = 1;
+	private static int   failed   = 0;
+
+	public static void main( String args[] ) throws Exception {
+		for ( int i = 0; i < args.length; i++ ) {
+			if ( args[i].equals( "-matrices" ) ) {
+				matrices = Integer.parseInt( args[++i] );
+			}
+			else
+			if ( args[i].equals( "-seed" ) ) {
+				seed = Long.parseLong( args[++i] );
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+
+		Random random = new Random( seed );
+		keyboard( random );
+		devices();
+
+		if ( failed != 0 ) {
+			System.out.println( failed + " checks failed" );
+			System.exit( 1 );
+		}
+		System.out.println( "ports match" );
+	}
+
+	private static void check( String what, boolean ok ) {
+		if ( !ok ) {
+			System.out.println( "failed: " + what );
+			failed++;
+		}
+	}
+
+	/** The ULA against the eight tests, for random half rows set through
+	 *  a restored state and for keys pressed.
+	 */
+	private static void keyboard( Random random ) {
+		SpectrumMachine m = new SpectrumMachine();
+		int r[] = new int[ SpectrumMachine.REGISTERS ];
+
+		for ( int n = 0; n < matrices; n++ ) {
+			m.saveRegisters( r, 0 );
+			int rows[] = new int[ 8 ];
+			for ( int i = 0; i < 8; i++ ) {
+				// Mostly nothing pressed, as on the real keyboard
+				rows[ i ] = random.nextBoolean() ? 0xff : random.nextInt( 256 );
+			}
+			r[ SpectrumMachine.REGISTERS - 2 ] = (rows[7] << 24) | (rows[6] << 16) | (rows[5] << 8) | rows[4];
+			r[ SpectrumMachine.REGISTERS - 1 ] = (rows[3] << 24) | (rows[2] << 16) | (rows[1] << 8) | rows[0];
+			m.restoreRegisters( r, 0 );
+
+			for ( int port = 0; port < 65536; port++ ) {
+				int expected = decode( rows, port );
+				if ( m.inb( port ) != expected ) {
+					check( "matrix " + n + " port " + Integer.toHexString( port ) + " " +
+						Integer.toHexString( m.inb( port ) ) + " expected " + Integer.toHexString( expected ), false );
+					break;
+				}
+			}
+		}
+
+		m.resetKeyboard();
+		check( "released keyboard reads ff", m.inb( 0x00fe ) == 0xff );
+		m.doKey( true, 'a', 0 );
+		check( "A on half row FDFE", m.inb( 0xfdfe ) == 0xfe );
+		check( "A not on half row FBFE", m.inb( 0xfbfe ) == 0xff );
+		check( "A on all half rows", m.inb( 0x00fe ) == 0xfe );
+		m.doKey( false, 'a', 0 );
+		check( "A released", m.inb( 0xfdfe ) == 0xff );
+	}
+
+	/** What the ULA read before the table: half rows A8 to A15 */
+	private static int decode( int rows[], int port ) {
+		int res = 0xff;
+		if ( (port & 0x0001) == 0 ) {
+			for ( int line = 0; line < 8; line++ ) {
+				if ( (port & (0x100 << line)) == 0 ) {
+					res &= rows[ line ];
+				}
+			}
+		}
+		return res;
+	}
+
+	/** A device which counts its accesses and reads as a fixed value */
+	private static final class Probe implements SpectrumMachine.Device {
+		final int value;
+		int       reads  = 0;
+		int       writes = 0;
+		int       last   = -1;
+
+		Probe( int _value ) {
+			value = _value;
+		}
+
+		public int inb( SpectrumMachine machine, int port ) {
+			reads++;
+			return value;
+		}
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			writes++;
+			last = outByte;
+		}
+	}
+
+	/** Decoding on the low byte and on both bytes, sharing and detaching */
+	private static void devices() {
+		SpectrumMachine m = new SpectrumMachine();
+		m.detach( SpectrumMachine.ULA );
+
+		// As port 7FFD of the 128K, A15 and A1 low
+		Probe paging = new Probe( 0xff );
+		m.attach( paging, 0x8002, 0x0000 );
+		// As port 1F of the Kempston joystick, A5 to A7 low
+		Probe low    = new Probe( 0xf0 );
+		m.attach( low, 0x00e0, 0x0000 );
+		// On exactly port 1F, shares it with low
+		Probe exact  = new Probe( 0x3c );
+		m.attach( exact, 0x00ff, 0x001f );
+
+		for ( int port = 0; port < 65536; port++ ) {
+			int  pr = paging.reads, lr = low.reads, er = exact.reads;
+			int  v  = m.inb( port );
+			m.outb( port, port & 0xff, 0 );
+
+			boolean p = (port & 0x8002) == 0;
+			boolean l = (port & 0x00e0) == 0;
+			boolean e = (port & 0x00ff) == 0x1f;
+
+			int expected = (l ? 0xf0 : 0xff) & (e ? 0x3c : 0xff);
+			if ( (v != expected) ||
+				((paging.reads - pr) != (p ? 1 : 0)) ||
+				((low.reads - lr) != (l ? 1 : 0)) ||
+				((exact.reads - er) != (e ? 1 : 0)) ) {
+				check( "port " + Integer.toHexString( port ) + " read " + Integer.toHexString( v ) +
+					" expected " + Integer.toHexString( expected ), false );
+				break;
+			}
+		}
+		check( "paging written on a quarter of the ports", paging.writes == 16384 );
+		check( "low written on an eighth of the ports", low.writes == 8192 );
+		check( "exact written on its port only", exact.writes == 256 );
+
+		m.outb( 0x7ffd, 0x17, 0 );
+		check( "paging sees 7FFD", paging.last == 0x17 );
+		m.outb( 0x001f, 0x42, 0 );
+		check( "low and exact both see 1F", (low.last == 0x42) && (exact.last == 0x42) );
+
+		m.detach( exact );
+		check( "low alone on 1F after detach", m.inb( 0x001f ) == 0xf0 );
+		m.detach( low );
+		m.detach( paging );
+		check( "nothing on 1F", m.inb( 0x001f ) == 0xff );
+		check( "nothing on 7FFD", m.inb( 0x7ffd ) == 0xff );
+
+		m.attach( SpectrumMachine.ULA, 0x0001, 0x0000 );
+		check( "ULA back on FE", m.inb( 0x00fe ) == 0xff );
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * @(#)SchedulerTest.java
+ */
+
+/**
+ * <p>The SchedulerTest class checks that events fire on time where the
+ * fetch/execute loop runs ahead: during a HALT waiting for the interrupt,
+ * and when a device schedules one from its outb, by OUT (n),A or by the
+ * ED prefixed OUT (C),A. The event has to fire at the first instruction
+ * boundary past its T-state, and the machine has to end the frame as it
+ * would have without the event. A save state has to put the clock back,
+ * a fork has to start at its parent's clock, and an event still pending
+ * across a restore has to fire at its clock time all the same.</p>
+ *
+ * <p>Every failed check is printed and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . SchedulerTest
+ * </pre>
+ *
+ * @see Z80#schedule
+ */
+
+public class SchedulerTest {
+	private static int failed = 0;
+
+	/** DI; HALT; JR $-1 */
+	private static final int HALT[] = { 0xf3, 0x76, 0x18, 0xfd };
+
+	/** DI; LD A,0; OUT ($1F),A; JR $ */
+	private static final int OUT[] = { 0xf3, 0x3e, 0x00, 0xd3, 0x1f, 0x18, 0xfe };
+
+	/** DI; LD BC,$001F; OUT (C),A; JR $ */
+	private static final int OUT_C[] = { 0xf3, 0x01, 0x1f, 0x00, 0xed, 0x79, 0x18, 0xfe };
+
+	/** When an event fired */
+	private static final class Fired implements Scheduler.Event {
+		long clock = -1;
+
+		public void fire( Z80 z80, long when ) {
+			clock = z80.clock();
+		}
+	}
+
+	/** Schedules fired 100 T-states after the first write to it */
+	private static final class Timer implements SpectrumMachine.Device {
+		final Fired fired = new Fired();
+		long        due   = -1;
+
+		public int inb( SpectrumMachine machine, int port ) {
+			return 0xff;
+		}
+
+		public void outb( SpectrumMachine machine, int port, int outByte, int tstates ) {
+			if ( due < 0 ) {
+				due = machine.clockAt( tstates ) + 100;
+				machine.schedule( fired, due );
+			}
+		}
+	}
+
+	public static void main( String args[] ) throws Exception {
+		for ( int at = 100; at < 70000; at += 6997 ) {
+			halt( at );
+		}
+		out( "OUT (n),A", OUT );
+		out( "OUT (C),A", OUT_C );
+		restore();
+
+		if ( failed != 0 ) {
+			System.out.println( failed + " checks failed" );
+			System.exit( 1 );
+		}
+		System.out.println( "events on time" );
+	}
+
+	private static void check( String what, boolean ok ) {
+		if ( !ok ) {
+			System.out.println( "failed: " + what );
+			failed++;
+		}
+	}
+
+	private static SpectrumMachine machine( int code[] ) {
+		SpectrumMachine m = new SpectrumMachine();
+		for ( int i = 0; i < code.length; i++ ) {
+			m.pokeb( 0x8000 + i, code[ i ] );
+		}
+		m.PC( 0x8000 );
+		m.SP( 0x8000 );
+		return m;
+	}
+
+	/** An event due at T-state at of the first frame, spent halted */
+	private static void halt( int at ) {
+		SpectrumMachine m    = machine( HALT );
+		SpectrumMachine same = machine( HALT );
+		Fired fired = new Fired();
+		long  due   = m.clock() + at;
+		m.schedule( fired, due );
+
+		m.runFrames( 2 );
+		same.runFrames( 2 );
+
+		check( "HALT: event due at " + due + " fired at " + fired.clock,
+			(fired.clock >= due) && (fired.clock < due + 4) );
+		check( "HALT: clock " + m.clock() + ", expected " + same.clock(), m.clock() == same.clock() );
+		check( "HALT: PC " + m.PC() + ", expected " + same.PC(), m.PC() == same.PC() );
+		check( "HALT: R " + m.R() + ", expected " + same.R(), m.R() == same.R() );
+	}
+
+	/** An event scheduled from outb by the OUT in code */
+	private static void out( String what, int code[] ) {
+		SpectrumMachine m = machine( code );
+		Timer timer = new Timer();
+		m.attach( timer, 0x00ff, 0x001f );
+
+		m.runFrames( 1 );
+
+		// Fired before the JR $ which is running ends
+		check( what + ": event due at " + timer.due + " fired at " + timer.fired.clock,
+			(timer.due >= 0) && (timer.fired.clock >= timer.due) && (timer.fired.clock < timer.due + 12) );
+	}
+
+	/** The clock through save, restore and fork */
+	private static void restore() {
+		SpectrumMachine m = machine( HALT );
+		int   frame = m.tstatesPerInterrupt;
+		m.runFrames( 1 );
+		long  saved = m.clock();
+		SpectrumState s = m.save();
+
+		m.runFrames( 1 );
+		Fired fired = new Fired();
+		long  due   = m.clock() + frame + 100;
+		m.schedule( fired, due );
+
+		m.restore( s );
+		check( "restore: clock " + m.clock() + ", expected " + saved, m.clock() == saved );
+		check( "fork: clock", m.fork().clock() == saved );
+
+		m.runFrames( 2 );
+		check( "restore: event due at " + due + " fired early at " + fired.clock, fired.clock < 0 );
+		m.runFrames( 1 );
+		check( "restore: event due at " + due + " fired at " + fired.clock,
+			(fired.clock >= due) && (fired.clock < due + 4) );
+	}
+}
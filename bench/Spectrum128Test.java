@@ -0,0 +1,346 @@
+/*
+ * @(#)Spectrum128Test.java
+ */
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * <p>The Spectrum128Test class checks the 128K machine: every bank paged in
+ * at C000, banks 5 and 2 seen at both of their addresses, the ROM switch,
+ * the screen handler following the screen shown, the shadow screen drawn as bank 5 would be, the paging lock and a 48K
+ * snapshot loaded the same as on the 48K machine.</p>
+ *
+ * <p>A small program which pages through the banks every frame and copies
+ * the screen about is then run straight for 200 frames. Continued from a
+ * save state, restored, forked and rewound from keyframes and from
+ * differences it has to match the straight run, banks, registers and
+ * pixels, after every frame. A forked machine has to start on the banks
+ * of the state and copy only those it writes, leaving the state and its
+ * parent as they were.</p>
+ *
+ * <p>Every failed check is printed and the exit status is non zero.</p>
+ *
+ * <p>Usage:
+ * <pre>
+ *   java -cp . Spectrum128Test [-rom file] [-snapshot file]
+ * </pre>
+ *
+ * @see Spectrum128
+ */
+
+public class Spectrum128Test {
+	private static String  romFile  = "archive/applet-fixed/spectrum.rom";
+	private static String  snapFile = "archive/applet-fixed/exolon.z80";
+	private static int     failed   = 0;
+
+	public static void main( String args[] ) throws Exception {
+		for ( int i = 0; i < args.length; i++ ) {
+			if ( args[i].equals( "-rom" ) ) {
+				romFile = args[++i];
+			}
+			else
+			if ( args[i].equals( "-snapshot" ) ) {
+				snapFile = args[++i];
+			}
+			else {
+				throw new Exception( "Unknown option " + args[i] );
+			}
+		}
+
+		paging();
+		handlers();
+		screen();
+		snapshot48();
+		states();
+
+		if ( failed != 0 ) {
+			System.out.println( failed + " checks failed" );
+			System.exit( 1 );
+		}
+		System.out.println( "128K checks pass" );
+	}
+
+	private static void check( String what, boolean ok ) {
+		if ( !ok ) {
+			System.out.println( "failed: " + what );
+			failed++;
+		}
+	}
+
+	/** Banks at C000, the two addresses of 5 and 2, the ROMs and the lock */
+	private static void paging() throws Exception {
+		Spectrum128 m = new Spectrum128();
+
+		for ( int b = 0; b < 8; b++ ) {
+			m.outb( 0x7ffd, b, 0 );
+			m.pokeb( 0xc000, 0x10 + b );
+		}
+		for ( int b = 0; b < 8; b++ ) {
+			m.outb( 0x7ffd, b, 0 );
+			check( "bank " + b + " at C000", (m.peek( 0xc000 ) == 0x10 + b) && (m.banks[ b ][ 0 ] == 0x10 + b) );
+		}
+		check( "bank 5 at 4000", m.peek( 0x4000 ) == 0x15 );
+		check( "bank 2 at 8000", m.peek( 0x8000 ) == 0x12 );
+
+		m.outb( 0x7ffd, 5, 0 );
+		m.pokeb( 0xc123, 0xaa );
+		m.pokeb( 0x4124, 0xbb );
+		check( "bank 5 written at C000 read at 4000", m.peek( 0x4123 ) == 0xaa );
+		check( "bank 5 written at 4000 read at C000", m.peek( 0xc124 ) == 0xbb );
+		m.outb( 0x7ffd, 2, 0 );
+		m.pokeb( 0xc200, 0x77 );
+		m.pokew( 0x8201, 0x6655 );
+		check( "bank 2 written at C000 read at 8000", m.peek( 0x8200 ) == 0x77 );
+		check( "bank 2 written at 8000 read at C000", (m.peek( 0xc201 ) == 0x55) && (m.peek( 0xc202 ) == 0x66) );
+
+		byte roms[] = new byte[ 32768 ];
+		Arrays.fill( roms, 0, 16384, (byte) 0x11 );
+		Arrays.fill( roms, 16384, 32768, (byte) 0x22 );
+		m.loadROM( "roms", new ByteArrayInputStream( roms ) );
+		m.outb( 0x7ffd, 0x00, 0 );
+		check( "ROM 0", m.peek( 0x1234 ) == 0x11 );
+		m.outb( 0x7ffd, 0x10, 0 );
+		check( "ROM 1", m.peek( 0x1234 ) == 0x22 );
+		m.pokeb( 0x1234, 0x33 );
+		check( "ROM not written", (m.peek( 0x1234 ) == 0x22) && (m.banks[ 9 ][ 0x1234 ] == 0x22) );
+
+		m.outb( 0x7ffd, 0x23, 0 );
+		m.outb( 0x7ffd, 0x04, 0 );
+		check( "paging locked", (m.port7ffd() == 0x23) && (m.peek( 0xc000 ) == 0x13) );
+		m.reset();
+		m.outb( 0x7ffd, 0x04, 0 );
+		check( "paging unlocked by a reset", (m.port7ffd() == 0x04) && (m.peek( 0xc000 ) == 0x14) );
+	}
+
+	/** SCREEN mapped where the screen shown is paged in, and nowhere else,
+	 *  for every value of 7FFD, and other handlers left where they are.
+	 */
+	private static void handlers() {
+		Spectrum128 m = new Spectrum128();
+		SpectrumMachine.PageHandler mine = ( machine, addr, newByte ) -> { };
+		m.map( 0x8000, 256, mine );
+		m.map( 0xe000, 256, mine );
+
+		for ( int v = 0; v < 16; v++ ) {
+			m.outb( 0x7ffd, v, 0 );
+			boolean low  = (v & 0x08) == 0;
+			boolean high = (v & 0x07) == (low ? 5 : 7);
+			check( "7FFD " + v + " SCREEN at 4000",
+				(m.handlerAt( 0x4000 ) == SpectrumMachine.SCREEN) == low &&
+				(m.handlerAt( 0x5a00 ) == SpectrumMachine.SCREEN) == low &&
+				(m.handlerAt( 0x5b00 ) == null) );
+			check( "7FFD " + v + " SCREEN at C000",
+				(m.handlerAt( 0xc000 ) == SpectrumMachine.SCREEN) == high &&
+				(m.handlerAt( 0xda00 ) == SpectrumMachine.SCREEN) == high &&
+				(m.handlerAt( 0xdb00 ) == null) );
+			check( "7FFD " + v + " other handlers kept",
+				(m.handlerAt( 0x8000 ) == mine) && (m.handlerAt( 0xe000 ) == mine) );
+		}
+	}
+
+	/** The shadow screen, shown or not, against the same bytes on a 48K */
+	private static void screen() {
+		SpectrumMachine ref = new SpectrumMachine();
+		ref.refreshWholeScreen();
+		ref.pokeb( 0x5800, 0x07 );
+		ref.pokeb( 0x4000, 0xff );
+		ref.pokeb( 0x5a1f, 0x38 );
+		ref.pokeb( 0x50ff, 0x81 );
+		ref.screenPaint();
+
+		Spectrum128 m = new Spectrum128();
+		m.refreshWholeScreen();
+		m.screenPaint();
+		int blank[] = m.pixels.clone();
+
+		// Bank 7 paged in and shown, drawn as it is written
+		m.outb( 0x7ffd, 0x0f, 0 );
+		m.pokeb( 0xd800, 0x07 );
+		m.pokeb( 0xc000, 0xff );
+		m.pokeb( 0xda1f, 0x38 );
+		m.pokeb( 0xd0ff, 0x81 );
+		m.screenPaint();
+		check( "shadow screen drawn at C000", Arrays.equals( m.pixels, ref.pixels ) );
+
+		// Bank 5 shown again, then bank 7 shown from wherever it is
+		m.outb( 0x7ffd, 0x07, 0 );
+		m.screenPaint();
+		check( "normal screen shown", Arrays.equals( m.pixels, blank ) );
+		m.outb( 0x7ffd, 0x08, 0 );
+		m.screenPaint();
+		check( "shadow screen shown paged out", Arrays.equals( m.pixels, ref.pixels ) );
+
+		// Writes to the screen not shown draw nothing
+		m.pokeb( 0x5800, 0x07 );
+		m.pokeb( 0x4000, 0x55 );
+		m.screenPaint();
+		check( "bank 5 hidden", Arrays.equals( m.pixels, ref.pixels ) );
+		m.outb( 0x7ffd, 0x00, 0 );
+		m.screenPaint();
+		check( "bank 5 shown after a hidden write", !Arrays.equals( m.pixels, blank ) );
+	}
+
+	/** A 48K snapshot runs with ROM 1 and paging locked, memory as on the 48K */
+	private static void snapshot48() throws Exception {
+		SpectrumMachine m48  = new SpectrumMachine();
+		Spectrum128     m128 = new Spectrum128();
+		for ( SpectrumMachine m : new SpectrumMachine[] { m48, m128 } ) {
+			try ( InputStream is = new FileInputStream( romFile ) ) {
+				m.loadROM( romFile, is );
+			}
+			File snap = new File( snapFile );
+			try ( InputStream is = new FileInputStream( snap ) ) {
+				m.loadSnapshot( snapFile, is, (int) snap.length() );
+			}
+		}
+
+		boolean same = true;
+		for ( int addr = 0; addr < 65536; addr++ ) {
+			same &= (m48.peek( addr ) == m128.peek( addr ));
+		}
+		check( "48K snapshot memory", same );
+		check( "48K snapshot registers",
+			(m48.PC() == m128.PC()) && (m48.SP() == m128.SP()) && (m48.AF() == m128.AF()) && (m48.IM() == m128.IM()) );
+		check( "48K snapshot locks paging", (m128.port7ffd() & 0x30) == 0x30 );
+
+		m128.outb( 0x7ffd, 0x01, 0 );
+		check( "48K snapshot stays locked", m128.peek( 0xc000 ) == m48.peek( 0xc000 ) );
+		m128.runFrames( 50 );
+		check( "48K snapshot runs", m128.PC() != 0 );
+	}
+
+	/** A program which writes a count and copies the screen into the bank
+	 *  at C000, then pages the next one in for the next frame.
+	 */
+	private static Spectrum128 program() throws Exception {
+		Spectrum128 m = new Spectrum128();
+		try ( InputStream is = new FileInputStream( romFile ) ) {
+			m.loadROM( romFile, is );
+		}
+		m.reset();
+
+		int code[] = {
+			0xfb,                   // EI
+			0x31, 0x00, 0x80,       // LD SP,8000h
+			0xfd, 0x21, 0x3a, 0x5c, // LD IY,5C3Ah
+			0x3a, 0x00, 0x81,       // LD A,(8100h)
+			0x32, 0x20, 0xc1,       // LD (C120h),A
+			0x21, 0x00, 0x40,       // LD HL,4000h
+			0x11, 0x01, 0xe0,       // LD DE,E001h
+			0x01, 0x00, 0x02,       // LD BC,0200h
+			0xed, 0xb0,             // LDIR
+			0x3a, 0x00, 0x81,       // LD A,(8100h)
+			0x3c,                   // INC A
+			0x32, 0x00, 0x81,       // LD (8100h),A
+			0xe6, 0x0f,             // AND 0Fh
+			0x01, 0xfd, 0x7f,       // LD BC,7FFDh
+			0xed, 0x79,             // OUT (C),A
+			0x32, 0x20, 0x40,       // LD (4020h),A
+			0x76,                   // HALT
+			0x18, 0xdb,             // JR 8008h
+		};
+		for ( int i = 0; i < code.length; i++ ) {
+			m.pokeb( 0x8000 + i, code[ i ] );
+		}
+		m.PC( 0x8000 );
+		m.refreshWholeScreen();
+		return m;
+	}
+
+	private static long crc( SpectrumMachine m ) {
+		CRC32 crc = new CRC32();
+		for ( int b = 0; b < m.banks.length; b++ ) {
+			crc.update( m.banks[ b ] );
+		}
+		int r[] = new int[ m.registers() ];
+		m.saveRegisters( r, 0 );
+		for ( int i = 0; i < r.length; i++ ) {
+			crc.update( r[ i ] );
+		}
+		m.screenPaint();
+		for ( int i = 0; i < m.pixels.length; i++ ) {
+			crc.update( m.pixels[ i ] );
+		}
+		return crc.getValue();
+	}
+
+	private static long crc( SpectrumState s ) {
+		CRC32 crc = new CRC32();
+		for ( int b = 0; b < s.pages.length; b++ ) {
+			crc.update( s.pages[ b ] );
+		}
+		return crc.getValue();
+	}
+
+	/** Whether banks first to last - 1 of m are the arrays of s */
+	private static boolean shares( SpectrumMachine m, SpectrumState s, int first, int last ) {
+		for ( int b = first; b < last; b++ ) {
+			if ( m.banks[ b ] != s.pages[ b ] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Run m on, a frame at a time, as frames first to last of the straight run */
+	private static void follow( String what, SpectrumMachine m, long expected[], int first, int last ) {
+		for ( int f = first; f <= last; f++ ) {
+			m.runFrames( 1 );
+			if ( crc( m ) != expected[ f ] ) {
+				check( what + " at frame " + f, false );
+				return;
+			}
+		}
+	}
+
+	/** Save, restore, fork and rewind against a straight run, after every frame */
+	private static void states() throws Exception {
+		Spectrum128 straight = program();
+		long expected[] = new long[ 201 ];
+		for ( int f = 1; f <= 200; f++ ) {
+			straight.runFrames( 1 );
+			expected[ f ] = crc( straight );
+		}
+
+		Spectrum128 m = program();
+		m.runFrames( 100 );
+		SpectrumState s = m.save();
+		follow( "continued after a save", m, expected, 101, 200 );
+
+		m.restore( s );
+		follow( "restored", m, expected, 101, 200 );
+
+		m.restore( s );
+		long state = crc( s );
+		SpectrumMachine child = m.fork();
+		check( "forked a Spectrum128", child instanceof Spectrum128 );
+		check( "forked on the banks of the state", shares( child, s, 0, 10 ) );
+		follow( "forked", child, expected, 101, 200 );
+		check( "forked ROMs still shared", shares( child, s, 8, 10 ) );
+		check( "forked banks copied when written", !shares( child, s, 0, 8 ) );
+		check( "state kept from the fork", crc( s ) == state );
+		check( "parent kept from the fork", crc( m ) == expected[ 100 ] );
+		follow( "parent of a fork", m, expected, 101, 200 );
+
+		// Going back 100 frames at the interrupt after frame 150 leaves frame 49
+		m = program();
+		m.rewinder = new Rewind( m, 500, 40 );
+		m.runFrames( 150 );
+		m.rewind( 100 );
+		follow( "rewound to a keyframe", m, expected, 50, 200 );
+
+		m = program();
+		m.rewinder = new Rewind( m, 500, 1000 );
+		m.runFrames( 150 );
+		m.rewind( 100 );
+		follow( "rewound through differences", m, expected, 50, 200 );
+
+		try {
+			new SpectrumMachine().restore( s );
+			check( "128K state refused by a 48K", false );
+		}
+		catch ( IllegalArgumentException e ) {
+		}
+	}
+}